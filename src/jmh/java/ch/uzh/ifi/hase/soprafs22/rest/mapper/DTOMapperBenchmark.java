@@ -0,0 +1,40 @@
+package ch.uzh.ifi.hase.soprafs22.rest.mapper;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.FullUserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DTOMapperBenchmark {
+
+  private User user;
+
+  @Setup
+  public void setup() {
+    user = new User();
+    user.setId(1L);
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.ONLINE);
+    user.setToken("token");
+    user.setCreation_date(new Date());
+    user.setBirthday(new Date());
+  }
+
+  @Benchmark
+  public UserGetDTO convertEntityToUserGetDTO() {
+    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+  }
+
+  @Benchmark
+  public FullUserGetDTO convertEntityToFullUserGetDTO() {
+    return DTOMapper.INSTANCE.convertEntityToFullUserGetDTO(user);
+  }
+}
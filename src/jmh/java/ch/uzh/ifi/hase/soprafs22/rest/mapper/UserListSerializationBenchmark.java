@@ -0,0 +1,69 @@
+package ch.uzh.ifi.hase.soprafs22.rest.mapper;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserListSerializationBenchmark
+ * Serialises the GET /users response body with the same Jackson setup Spring
+ * uses, writing to a discarding stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UserListSerializationBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  public int users;
+
+  private List<UserGetDTO> userGetDTOs;
+
+  private ObjectWriter writer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    writer = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, UserGetDTO.class));
+
+    userGetDTOs = new ArrayList<>(users);
+    for (long i = 1; i <= users; i++) {
+      UserGetDTO userGetDTO = new UserGetDTO();
+      userGetDTO.setId(i);
+      userGetDTO.setName("Name " + i);
+      userGetDTO.setUsername("user" + i);
+      userGetDTO.setStatus(i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+      userGetDTOs.add(userGetDTO);
+    }
+  }
+
+  @Benchmark
+  public long serializeUserList() throws IOException {
+    CountingOutputStream out = new CountingOutputStream();
+    writer.writeValue(out, userGetDTOs);
+    return out.count;
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
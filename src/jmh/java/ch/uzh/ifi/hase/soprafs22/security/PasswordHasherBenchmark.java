@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PasswordHasherBenchmark
+ * Runs on a single thread with a single hasher thread, so the score of
+ * verify is the number of password checks (logins) per second per core for
+ * the given work factor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+public class PasswordHasherBenchmark {
+
+  @Param({ "10000", "100000", "310000" })
+  public int iterations;
+
+  private PasswordHasher passwordHasher;
+
+  private String encodedPassword;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    passwordHasher = new PasswordHasher(iterations, 1, 16);
+    encodedPassword = passwordHasher.hash("benchmarkPassword").join();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    passwordHasher.shutdown();
+  }
+
+  @Benchmark
+  public boolean verify() {
+    return passwordHasher.matches("benchmarkPassword", encodedPassword).join();
+  }
+
+  @Benchmark
+  public String hash() {
+    return passwordHasher.hash("benchmarkPassword").join();
+  }
+}
@@ -0,0 +1,70 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserServiceBenchmark
+ * Measures the UserService hot paths against the booted application with the
+ * in-memory H2 database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UserServiceBenchmark {
+
+  private static final String PASSWORD = "benchmarkPassword";
+
+  private final AtomicLong usernameSequence = new AtomicLong();
+
+  private ConfigurableApplicationContext context;
+
+  private UserService userService;
+
+  private Long existingUserId;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = SpringApplication.run(Application.class,
+        "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=WARN");
+    userService = context.getBean(UserService.class);
+    existingUserId = userService.createUser(newUser("existing")).join().getId();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public User createUser() {
+    return userService.createUser(newUser("user" + usernameSequence.incrementAndGet())).join();
+  }
+
+  @Benchmark
+  public UserSession loginCredentials() {
+    User credentials = new User();
+    credentials.setUsername("existing");
+    credentials.setPassword(PASSWORD);
+    return userService.loginCredentials(credentials).join();
+  }
+
+  @Benchmark
+  public User getUserbyUserID() {
+    return userService.getUserbyUserID(existingUserId);
+  }
+
+  private static User newUser(String username) {
+    User user = new User();
+    user.setName(username);
+    user.setUsername(username);
+    user.setPassword(PASSWORD);
+    return user;
+  }
+}
@@ -0,0 +1,71 @@
+package ch.uzh.ifi.hase.soprafs22.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PrefixIndexBenchmark
+ * Typeahead queries of one to three characters against an index of one
+ * million users (username and name each), with a log of pending changes as
+ * it looks between two compactions. SampleTime reports the p99 of a query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class PrefixIndexBenchmark {
+
+  @Param({ "1000000" })
+  public int users;
+
+  private PrefixIndex index;
+
+  private String[] prefixes;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Random random = new Random(42);
+    List<String> keys = new ArrayList<>(2 * users);
+    List<Long> ids = new ArrayList<>(2 * users);
+    for (long id = 0; id < users; id++) {
+      keys.add(randomKey(random));
+      ids.add(id);
+      keys.add(randomKey(random) + " " + randomKey(random));
+      ids.add(id);
+    }
+    index = new PrefixIndex(1024);
+    index.addAll(keys, ids);
+    for (int i = 0; i < 1000; i++) {
+      index.add(randomKey(random), users + i);
+    }
+
+    prefixes = new String[1024];
+    for (int i = 0; i < prefixes.length; i++) {
+      prefixes[i] = randomKey(random).substring(0, 1 + random.nextInt(3));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    index.shutdown();
+  }
+
+  @Benchmark
+  public List<Long> search() {
+    return index.search(prefixes[ThreadLocalRandom.current().nextInt(prefixes.length)], 10);
+  }
+
+  private static String randomKey(Random random) {
+    int length = 4 + random.nextInt(8);
+    StringBuilder key = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      key.append((char) ('a' + random.nextInt(26)));
+    }
+    return key.toString();
+  }
+}
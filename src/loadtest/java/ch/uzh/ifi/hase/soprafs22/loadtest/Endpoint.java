@@ -0,0 +1,29 @@
+package ch.uzh.ifi.hase.soprafs22.loadtest;
+
+/**
+ * The endpoints driven by the load test and their default share of the
+ * request mix, in percent.
+ */
+enum Endpoint {
+  CREATE_USER("POST /users", 5),
+  LOGIN("POST /login", 20),
+  GET_USER("GET /users/{id}", 50),
+  EDIT_USER("PUT /users/{id}", 10),
+  LOGOUT("PUT /logout/{id}", 15);
+
+  private final String label;
+  private final int defaultWeight;
+
+  Endpoint(String label, int defaultWeight) {
+    this.label = label;
+    this.defaultWeight = defaultWeight;
+  }
+
+  String getLabel() {
+    return label;
+  }
+
+  int getDefaultWeight() {
+    return defaultWeight;
+  }
+}
@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs22.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram (microseconds) and request/error counters of one endpoint.
+ */
+class EndpointStats {
+
+  private final Histogram latencies = new ConcurrentHistogram(3);
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+
+  void record(long latencyMicros, int status) {
+    latencies.recordValue(latencyMicros);
+    requests.increment();
+    if (status < 200 || status >= 300) {
+      errors.increment();
+    }
+  }
+
+  void reset() {
+    latencies.reset();
+    requests.reset();
+    errors.reset();
+  }
+
+  long getRequests() {
+    return requests.sum();
+  }
+
+  long getErrors() {
+    return errors.sum();
+  }
+
+  double percentileMillis(double percentile) {
+    return latencies.getValueAtPercentile(percentile) / 1000.0;
+  }
+
+  double maxMillis() {
+    return latencies.getMaxValue() / 1000.0;
+  }
+}
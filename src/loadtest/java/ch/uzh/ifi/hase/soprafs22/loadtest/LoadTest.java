@@ -0,0 +1,384 @@
+package ch.uzh.ifi.hase.soprafs22.loadtest;
+
+import ch.uzh.ifi.hase.soprafs22.Application;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadTest
+ * Drives a weighted mix of the user endpoints with a fixed number of
+ * concurrent clients and records the latency of every request in an
+ * HdrHistogram per endpoint. Without --target the application is booted
+ * in-process on the in-memory H2 database.
+ * With --sweep the concurrency is raised level by level until the p99 or the
+ * error rate exceeds its limit, once per execution mode, which gives the
+ * highest sustained concurrency of the platform and the virtual thread mode,
+ * and of the WebFlux/R2DBC stack (reactive profile) if requested.
+ *
+ * Options (all --key=value):
+ * - target: base url of an already running server
+ * - threads, users, warmup, duration (seconds)
+ * - mix: e.g. GET_USER:50,LOGIN:20 (see Endpoint)
+ * - output: JSON report file
+ * - baseline: JSON report of an earlier run to compare with
+ * - max-regression: allowed relative p99/throughput regression against the
+ *   baseline, the run fails above it
+ * - sweep: concurrency levels, e.g. 50,200,800,3200
+ * - modes: execution modes to sweep (platform, virtual, reactive), default platform,virtual
+ * - slo-p99-ms, max-error-rate: limits of a sustained level, default 500 and 0.01
+ * Any other --app.* / --spring.* option is passed on to the booted application.
+ * All clients log in from the same address, so the booted application gets
+ * login limits far above any load level unless --app.login-limit.* is given.
+ */
+public class LoadTest {
+
+  private static final String PASSWORD = "loadtest";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+  private final Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+
+  private final AtomicLong usernameSequence = new AtomicLong();
+
+  private final String target;
+
+  private final Map<String, String> options;
+
+  private final Endpoint[] mix;
+
+  private final List<Long> userIds = new ArrayList<>();
+
+  private final List<String> usernames = new ArrayList<>();
+
+  LoadTest(String target, Map<String, String> options) {
+    this.target = target;
+    this.options = options;
+    this.mix = parseMix(options.get("mix"));
+    for (Endpoint endpoint : Endpoint.values()) {
+      stats.put(endpoint, new EndpointStats());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    List<String> applicationArgs = new ArrayList<>(List.of(
+        "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=WARN"));
+    for (String arg : args) {
+      if (arg.startsWith("--app.") || arg.startsWith("--spring.")) {
+        applicationArgs.add(arg);
+      } else if (arg.startsWith("--") && arg.contains("=")) {
+        options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+      }
+    }
+    if (applicationArgs.stream().noneMatch(arg -> arg.startsWith("--app.login-limit."))) {
+      applicationArgs.addAll(List.of(
+          "--app.login-limit.username.capacity=1000000", "--app.login-limit.username.refill-per-minute=100000000",
+          "--app.login-limit.address.capacity=1000000", "--app.login-limit.address.refill-per-minute=100000000"));
+    }
+
+    if (options.containsKey("sweep")) {
+      System.exit(sweep(options, applicationArgs));
+    }
+
+    ConfigurableApplicationContext context = null;
+    String target = options.get("target");
+    if (target == null) {
+      context = SpringApplication.run(Application.class, applicationArgs.toArray(new String[0]));
+      target = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+    }
+
+    int exitCode;
+    try {
+      exitCode = new LoadTest(target, options).run();
+    } finally {
+      if (context != null) {
+        context.close();
+      }
+    }
+    System.exit(exitCode);
+  }
+
+  int run() throws Exception {
+    int threads = intOption("threads", 16);
+    seedUsers(intOption("users", 200));
+
+    runPhase(threads, intOption("warmup", 10));
+    stats.values().forEach(EndpointStats::reset);
+    int duration = intOption("duration", 30);
+    runPhase(threads, duration);
+
+    ObjectNode report = report(threads, duration);
+    System.out.println(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+
+    File output = new File(options.getOrDefault("output", "build/reports/loadtest/result.json"));
+    output.getParentFile().mkdirs();
+    objectMapper.writerWithDefaultPrettyPrinter().writeValue(output, report);
+
+    String baseline = options.get("baseline");
+    if (baseline == null) {
+      return 0;
+    }
+    return compare(objectMapper.readTree(new File(baseline)), report) ? 0 : 1;
+  }
+
+  static int sweep(Map<String, String> options, List<String> applicationArgs) throws Exception {
+      // runs the sweep once per execution mode, each on a freshly booted application
+    ObjectMapper objectMapper = new ObjectMapper();
+    ObjectNode report = objectMapper.createObjectNode();
+    String target = options.get("target");
+    String modes = options.getOrDefault("modes", target == null ? "platform,virtual" : "target");
+    for (String mode : modes.split(",")) {
+      ConfigurableApplicationContext context = null;
+      String modeTarget = target;
+      if (modeTarget == null) {
+        List<String> modeArgs = new ArrayList<>(applicationArgs);
+        // the profile of a mode carries its pool sizes or, for reactive, the web stack
+        modeArgs.add("--spring.profiles.include=" + mode.trim());
+        modeArgs.add("--app.execution.mode=" + mode.trim());
+        context = SpringApplication.run(Application.class, modeArgs.toArray(new String[0]));
+        modeTarget = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+      }
+      try {
+        report.set(mode.trim(), new LoadTest(modeTarget, options).runSweep());
+      } finally {
+        if (context != null) {
+          context.close();
+        }
+      }
+    }
+
+    System.out.printf("%-10s %12s %12s %12s %12s%n", "mode", "concurrency", "req/s", "p99 ms", "errors");
+    report.fields().forEachRemaining(mode -> {
+      for (JsonNode level : mode.getValue().get("levels")) {
+        System.out.printf("%-10s %12d %12.1f %12.2f %11.2f%%%n", mode.getKey(), level.get("concurrency").asInt(),
+            level.get("throughput").asDouble(), level.get("p99").asDouble(), level.get("errorRate").asDouble() * 100);
+      }
+      System.out.printf("%-10s max sustained concurrency: %d%n", mode.getKey(),
+          mode.getValue().get("maxSustainedConcurrency").asInt());
+    });
+
+    File output = new File(options.getOrDefault("output", "build/reports/loadtest/sweep.json"));
+    output.getParentFile().mkdirs();
+    objectMapper.writerWithDefaultPrettyPrinter().writeValue(output, report);
+    return 0;
+  }
+
+  ObjectNode runSweep() throws Exception {
+      // Returns: throughput, worst p99 and error rate per level; the sweep stops at the first level
+      // that exceeds a limit, the level before it is the highest sustained concurrency
+    seedUsers(intOption("users", 200));
+    int warmup = intOption("warmup", 5);
+    int duration = intOption("duration", 20);
+    double sloMillis = Double.parseDouble(options.getOrDefault("slo-p99-ms", "500"));
+    double maxErrorRate = Double.parseDouble(options.getOrDefault("max-error-rate", "0.01"));
+
+    ObjectNode result = objectMapper.createObjectNode();
+    ArrayNode levels = result.putArray("levels");
+    int sustained = 0;
+    for (String level : options.get("sweep").split(",")) {
+      int concurrency = Integer.parseInt(level.trim());
+      runPhase(concurrency, warmup);
+      stats.values().forEach(EndpointStats::reset);
+      runPhase(concurrency, duration);
+
+      long requests = 0;
+      long errors = 0;
+      double p99 = 0;
+      for (EndpointStats endpointStats : stats.values()) {
+        requests += endpointStats.getRequests();
+        errors += endpointStats.getErrors();
+        if (endpointStats.getRequests() > 0) {
+          p99 = Math.max(p99, endpointStats.percentileMillis(99));
+        }
+      }
+      double errorRate = requests == 0 ? 1 : (double) errors / requests;
+      boolean withinLimits = errorRate <= maxErrorRate && p99 <= sloMillis;
+
+      ObjectNode node = levels.addObject();
+      node.put("concurrency", concurrency);
+      node.put("throughput", (double) requests / duration);
+      node.put("p99", p99);
+      node.put("errorRate", errorRate);
+      node.put("sustained", withinLimits);
+      stats.values().forEach(EndpointStats::reset);
+      if (!withinLimits) {
+        break;
+      }
+      sustained = concurrency;
+    }
+    result.put("maxSustainedConcurrency", sustained);
+    return result;
+  }
+
+  private void seedUsers(int count) throws Exception {
+    for (int i = 0; i < count; i++) {
+      String username = "seed" + usernameSequence.incrementAndGet();
+      HttpResponse<String> response = client.send(createUserRequest(username), HttpResponse.BodyHandlers.ofString());
+      if (response.statusCode() != 201) {
+        throw new IllegalStateException("Seeding failed with status " + response.statusCode() + ": " + response.body());
+      }
+      userIds.add(objectMapper.readTree(response.body()).get("id").asLong());
+      usernames.add(username);
+    }
+  }
+
+  private void runPhase(int threads, int seconds) throws InterruptedException {
+      // one virtual thread per client, so the load generator itself does not cap the concurrency
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    for (int i = 0; i < threads; i++) {
+      workers.execute(() -> {
+        while (System.nanoTime() < deadline) {
+          execute(mix[ThreadLocalRandom.current().nextInt(mix.length)]);
+        }
+      });
+    }
+    workers.shutdown();
+    workers.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+  }
+
+  private void execute(Endpoint endpoint) {
+    int user = ThreadLocalRandom.current().nextInt(userIds.size());
+    HttpRequest request;
+    switch (endpoint) {
+      case CREATE_USER:
+        request = createUserRequest("user" + usernameSequence.incrementAndGet());
+        break;
+      case LOGIN:
+        request = jsonRequest("/login", "POST",
+            String.format("{\"username\":\"%s\",\"password\":\"%s\"}", usernames.get(user), PASSWORD));
+        break;
+      case GET_USER:
+        request = HttpRequest.newBuilder(URI.create(target + "/users/" + userIds.get(user))).GET().build();
+        break;
+      case EDIT_USER:
+        request = jsonRequest("/users/" + userIds.get(user), "PUT", "{\"birthday\":\"2000-01-01\"}");
+        break;
+      default:
+        request = jsonRequest("/logout/" + userIds.get(user), "PUT", "");
+    }
+
+    long start = System.nanoTime();
+    int status;
+    try {
+      status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    } catch (IOException e) {
+      status = -1;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    stats.get(endpoint).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), status);
+  }
+
+  private HttpRequest createUserRequest(String username) {
+    return jsonRequest("/users", "POST",
+        String.format("{\"name\":\"%s\",\"username\":\"%s\",\"password\":\"%s\"}", username, username, PASSWORD));
+  }
+
+  private HttpRequest jsonRequest(String path, String method, String body) {
+    return HttpRequest.newBuilder(URI.create(target + path))
+        .header("Content-Type", "application/json")
+        .method(method, HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private ObjectNode report(int threads, int duration) {
+    ObjectNode report = objectMapper.createObjectNode();
+    report.put("target", target);
+    report.put("threads", threads);
+    report.put("durationSeconds", duration);
+    ObjectNode endpoints = report.putObject("endpoints");
+    for (Map.Entry<Endpoint, EndpointStats> entry : stats.entrySet()) {
+      EndpointStats endpointStats = entry.getValue();
+      if (endpointStats.getRequests() == 0) {
+        continue;
+      }
+      ObjectNode node = endpoints.putObject(entry.getKey().name());
+      node.put("endpoint", entry.getKey().getLabel());
+      node.put("requests", endpointStats.getRequests());
+      node.put("errors", endpointStats.getErrors());
+      node.put("throughput", (double) endpointStats.getRequests() / duration);
+      node.put("p50", endpointStats.percentileMillis(50));
+      node.put("p99", endpointStats.percentileMillis(99));
+      node.put("p999", endpointStats.percentileMillis(99.9));
+      node.put("max", endpointStats.maxMillis());
+    }
+    return report;
+  }
+
+  private boolean compare(JsonNode baseline, JsonNode current) {
+    double maxRegression = Double.parseDouble(options.getOrDefault("max-regression", "Infinity"));
+    boolean passed = true;
+    System.out.printf("%-18s %12s %12s %12s %12s%n", "endpoint", "p99 ms", "p99 delta", "req/s", "req/s delta");
+    for (Endpoint endpoint : Endpoint.values()) {
+      JsonNode before = baseline.path("endpoints").path(endpoint.name());
+      JsonNode after = current.path("endpoints").path(endpoint.name());
+      if (before.isMissingNode() || after.isMissingNode()) {
+        continue;
+      }
+      double p99Delta = relativeChange(before.get("p99").asDouble(), after.get("p99").asDouble());
+      double throughputDelta = relativeChange(before.get("throughput").asDouble(), after.get("throughput").asDouble());
+      System.out.printf("%-18s %12.2f %+11.1f%% %12.1f %+11.1f%%%n", endpoint.getLabel(),
+          after.get("p99").asDouble(), p99Delta * 100, after.get("throughput").asDouble(), throughputDelta * 100);
+      if (p99Delta > maxRegression || -throughputDelta > maxRegression) {
+        passed = false;
+      }
+    }
+    return passed;
+  }
+
+  private static double relativeChange(double before, double after) {
+    return before == 0 ? 0 : (after - before) / before;
+  }
+
+  private static Endpoint[] parseMix(String mix) {
+      // expands the weights into a lookup table, one slot per percent
+    Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+    if (mix == null) {
+      for (Endpoint endpoint : Endpoint.values()) {
+        weights.put(endpoint, endpoint.getDefaultWeight());
+      }
+    } else {
+      for (String part : mix.split(",")) {
+        String[] pair = part.split(":");
+        weights.put(Endpoint.valueOf(pair[0].trim()), Integer.parseInt(pair[1].trim()));
+      }
+    }
+    List<Endpoint> table = new ArrayList<>();
+    weights.forEach((endpoint, weight) -> {
+      for (int i = 0; i < weight; i++) {
+        table.add(endpoint);
+      }
+    });
+    return table.toArray(new Endpoint[0]);
+  }
+
+  private int intOption(String name, int defaultValue) {
+    return Integer.parseInt(options.getOrDefault(name, Integer.toString(defaultValue)));
+  }
+}
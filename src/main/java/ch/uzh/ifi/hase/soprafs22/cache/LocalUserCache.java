@@ -0,0 +1,102 @@
+package ch.uzh.ifi.hase.soprafs22.cache;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@Component
+@ConditionalOnProperty(name = "app.cache.type", havingValue = "local", matchIfMissing = true)
+public class LocalUserCache implements UserCache, MeterBinder {
+
+  private final Cache<Long, User> usersById;
+
+  private final Cache<String, Long> userIdsByUsername;
+
+  public LocalUserCache(@Value("${app.cache.maximum-size:10000}") long maximumSize,
+                        @Value("${app.cache.ttl-seconds:600}") long ttlSeconds) {
+    this.usersById = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    this.userIdsByUsername = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+  }
+
+  @Override
+  public User getById(Long id) {
+    return copyOf(usersById.getIfPresent(id));
+  }
+
+  @Override
+  public User getByUsername(String username) {
+    Long id = userIdsByUsername.getIfPresent(username);
+    if (id == null) {
+      return null;
+    }
+    User user = usersById.getIfPresent(id);
+    // the mapping may outlive a username change
+    return user != null && username.equals(user.getUsername()) ? copyOf(user) : null;
+  }
+
+  @Override
+  public void put(User user) {
+    usersById.put(user.getId(), copyOf(user));
+    userIdsByUsername.put(user.getUsername(), user.getId());
+  }
+
+  @Override
+  public void evict(User user) {
+    if (user.getId() != null) {
+      usersById.invalidate(user.getId());
+    }
+    if (user.getUsername() != null) {
+      userIdsByUsername.invalidate(user.getUsername());
+    }
+  }
+
+  private static User copyOf(User user) {
+    // the cached copy never leaves the cache, callers get a copy of their own
+    if (user == null) {
+      return null;
+    }
+    User copy = new User();
+    copy.setId(user.getId());
+    copy.setName(user.getName());
+    copy.setUsername(user.getUsername());
+    copy.setPassword(user.getPassword());
+    copy.setToken(user.getToken());
+    copy.setStatus(user.getStatus());
+    copy.setCreation_date(copyOf(user.getCreation_date()));
+    copy.setBirthday(copyOf(user.getBirthday()));
+    copy.setVersion(user.getVersion());
+    return copy;
+  }
+
+  private static Date copyOf(Date date) {
+    return date != null ? new Date(date.getTime()) : null;
+  }
+
+  public CacheStats stats() {
+    return usersById.stats();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, usersById, "users.byId");
+    CaffeineCacheMetrics.monitor(registry, userIdsByUsername, "users.byUsername");
+  }
+}
@@ -0,0 +1,30 @@
+package ch.uzh.ifi.hase.soprafs22.cache;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConditionalOnProperty(name = "app.cache.type", havingValue = "none")
+public class NoOpUserCache implements UserCache {
+
+  @Override
+  public User getById(Long id) {
+    return null;
+  }
+
+  @Override
+  public User getByUsername(String username) {
+    return null;
+  }
+
+  @Override
+  public void put(User user) {
+    // nothing is cached
+  }
+
+  @Override
+  public void evict(User user) {
+    // nothing is cached
+  }
+}
@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs22.cache;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+
+/**
+ * User Cache
+ * Bounded cache of User entities, looked up by id or by username.
+ * The cache keeps a copy of each user and hands out a new copy on every hit,
+ * so callers may change the user they get (e.g. its status) without changing
+ * what other callers see.
+ * The implementation is chosen with app.cache.type:
+ * - local -> in-heap cache with size and TTL eviction (default)
+ * - none -> no application cache, e.g. when the Hibernate second-level cache
+ * is used instead (profile l2cache)
+ */
+public interface UserCache {
+
+  User getById(Long id);
+
+  User getByUsername(String username);
+
+  void put(User user);
+
+  // removes the user under its current id and username
+  void evict(User user);
+}
@@ -0,0 +1,22 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Reactive Server Configuration
+ * Active in the reactive profile. Tomcat is on the classpath for the servlet
+ * stack and would otherwise also serve the reactive application; Netty
+ * handles many mostly idle connections on a few event loop threads.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveServerConfig {
+
+  @Bean
+  public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+    return new NettyReactiveWebServerFactory();
+  }
+}
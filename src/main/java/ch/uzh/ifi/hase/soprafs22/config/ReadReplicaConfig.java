@@ -0,0 +1,67 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read Replica Configuration
+ * Active once app.datasource.replica-urls lists at least one replica (the
+ * replica profile). The primary is configured through spring.datasource.* as
+ * before; every replica gets a pool of its own with the same Hikari settings.
+ * Read-only transactions are served by the replicas, everything else by the
+ * primary, see ReadWriteRoutingDataSource.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.datasource.replica-urls")
+public class ReadReplicaConfig {
+
+  @Bean
+  public ReadWriteRoutingDataSource readWriteRoutingDataSource(
+      DataSourceProperties properties, Environment environment,
+      @Value("${app.datasource.replica-urls}") String[] replicaUrls,
+      @Value("${app.datasource.replica-username:${spring.datasource.username:}}") String replicaUsername,
+      @Value("${app.datasource.replica-password:${spring.datasource.password:}}") String replicaPassword,
+      @Value("${app.datasource.replica-lag-query:}") String lagQuery,
+      @Value("${app.datasource.replica-max-lag-ms:1000}") long maxLagMillis) {
+    HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    bindPoolSettings(environment, primary, "primary");
+
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+    for (int i = 0; i < replicaUrls.length; i++) {
+      String name = "replica-" + (i + 1);
+      HikariDataSource replica = new HikariDataSource();
+      replica.setJdbcUrl(replicaUrls[i].trim());
+      replica.setUsername(replicaUsername);
+      replica.setPassword(replicaPassword);
+      replica.setReadOnly(true);
+      bindPoolSettings(environment, replica, name);
+      replicas.put(name, replica);
+    }
+    return new ReadWriteRoutingDataSource(primary, replicas, lagQuery, maxLagMillis);
+  }
+
+  @Bean
+  @Primary
+  public DataSource dataSource(ReadWriteRoutingDataSource readWriteRoutingDataSource) {
+    // the physical connection is only fetched, and routed, on the first statement of a transaction
+    return new LazyConnectionDataSourceProxy(readWriteRoutingDataSource);
+  }
+
+  private static void bindPoolSettings(Environment environment, HikariDataSource dataSource, String name) {
+    Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+    dataSource.setPoolName("hikari-" + name);
+  }
+}
@@ -0,0 +1,211 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read/Write Routing DataSource
+ * Hands out connections of the primary for read-write work and connections of
+ * a replica for read-only transactions, round-robin over the replicas.
+ * A replica only receives reads while its replication lag, measured by the
+ * lag query on every check, stays within the maximum lag. A replica that lags
+ * behind or cannot be reached is skipped until a later check finds it in sync
+ * again; without any usable replica reads fall back to the primary.
+ * The routing decision is made when the connection is fetched, so this data
+ * source has to sit behind a LazyConnectionDataSourceProxy: the read-only flag
+ * of a transaction is only known after the transaction manager has opened it.
+ * A transaction served by a replica is marked as such until it completes, so
+ * callers can tell rows that may lag behind the primary (see
+ * isCurrentTransactionOnReplica).
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource implements MeterBinder {
+
+  static final String PRIMARY = "primary";
+
+  private static final long UNAVAILABLE = Long.MAX_VALUE;
+
+  // transaction resource key, bound to the replica name while a transaction reads from a replica
+  private static final Object REPLICA_READ = new Object();
+
+  private final Logger log = LoggerFactory.getLogger(ReadWriteRoutingDataSource.class);
+
+  private final Map<String, DataSource> replicas;
+
+  private final String lagQuery;
+
+  private final long maxLagMillis;
+
+  // last measured lag per replica, UNAVAILABLE when the check failed
+  private final Map<String, Long> lagMillis = new ConcurrentHashMap<>();
+
+  private final AtomicInteger nextReplica = new AtomicInteger();
+
+  // connections handed out per route and reason (write, read, fallback)
+  private final Map<String, LongAdder> routed = new HashMap<>();
+
+  public ReadWriteRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, String lagQuery,
+                                    long maxLagMillis) {
+    this.replicas = new LinkedHashMap<>(replicas);
+    this.lagQuery = lagQuery;
+    this.maxLagMillis = maxLagMillis;
+
+    Map<Object, Object> targets = new HashMap<>(replicas);
+    targets.put(PRIMARY, primary);
+    setTargetDataSources(targets);
+    setDefaultTargetDataSource(primary);
+
+    routed.put(key(PRIMARY, "write"), new LongAdder());
+    routed.put(key(PRIMARY, "fallback"), new LongAdder());
+    for (String replica : replicas.keySet()) {
+      lagMillis.put(replica, UNAVAILABLE);
+      routed.put(key(replica, "read"), new LongAdder());
+    }
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    super.afterPropertiesSet();
+    checkReplicas();
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+      routed.get(key(PRIMARY, "write")).increment();
+      return PRIMARY;
+    }
+    String replica = nextReplica();
+    if (replica == null) {
+      routed.get(key(PRIMARY, "fallback")).increment();
+      return PRIMARY;
+    }
+    routed.get(key(replica, "read")).increment();
+    markReplicaRead(replica);
+    return replica;
+  }
+
+  public static boolean isCurrentTransactionOnReplica() {
+      // Returns: true if the current transaction reads from a replica, whose rows may lag
+      // behind the primary by up to the maximum lag
+    return TransactionSynchronizationManager.hasResource(REPLICA_READ);
+  }
+
+  private static void markReplicaRead(String replica) {
+      // Helper method: marks the current transaction as served by the replica until it completes
+    if (!TransactionSynchronizationManager.isSynchronizationActive()
+        || TransactionSynchronizationManager.hasResource(REPLICA_READ)) {
+      return;
+    }
+    TransactionSynchronizationManager.bindResource(REPLICA_READ, replica);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void suspend() {
+        TransactionSynchronizationManager.unbindResourceIfPossible(REPLICA_READ);
+      }
+
+      @Override
+      public void resume() {
+        TransactionSynchronizationManager.bindResource(REPLICA_READ, replica);
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(REPLICA_READ);
+      }
+    });
+  }
+
+  private String nextReplica() {
+      // Returns: the next replica in turn that is within the maximum lag, null if there is none
+    List<String> names = new ArrayList<>(replicas.keySet());
+    int start = Math.floorMod(nextReplica.getAndIncrement(), names.size());
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get((start + i) % names.size());
+      if (lagMillis.get(name) <= maxLagMillis) {
+        return name;
+      }
+    }
+    return null;
+  }
+
+  @Scheduled(fixedDelayString = "${app.datasource.replica-check-interval-ms:1000}")
+  public void checkReplicas() {
+    replicas.forEach((name, replica) -> {
+      long lag = measureLag(name, replica);
+      Long previous = lagMillis.put(name, lag);
+      if (previous != null && (previous <= maxLagMillis) != (lag <= maxLagMillis)) {
+        log.warn("Replica {} {} read traffic, lag {} ms", name, lag <= maxLagMillis ? "back in" : "taken out of",
+            lag == UNAVAILABLE ? "unknown" : lag);
+      }
+    });
+  }
+
+  private long measureLag(String name, DataSource replica) {
+      // Returns: replication lag in milliseconds reported by the lag query (0 without a lag query),
+      // UNAVAILABLE if the replica cannot be reached
+    try (Connection connection = replica.getConnection()) {
+      if (lagQuery == null || lagQuery.isBlank()) {
+        return connection.isValid(1) ? 0 : UNAVAILABLE;
+      }
+      try (Statement statement = connection.createStatement();
+           ResultSet resultSet = statement.executeQuery(lagQuery)) {
+        return resultSet.next() ? Math.max(0, resultSet.getLong(1)) : UNAVAILABLE;
+      }
+    } catch (SQLException e) {
+      log.debug("Lag check of replica {} failed", name, e);
+      return UNAVAILABLE;
+    }
+  }
+
+  long getLagMillis(String replica) {
+    return lagMillis.get(replica);
+  }
+
+  long getRouted(String route, String reason) {
+    return routed.get(key(route, reason)).sum();
+  }
+
+  private static String key(String route, String reason) {
+    return route + "/" + reason;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    routed.forEach((key, count) -> {
+      String[] routeAndReason = key.split("/");
+      FunctionCounter.builder("users.datasource.connections", count, LongAdder::sum)
+          .tag("route", routeAndReason[0])
+          .tag("reason", routeAndReason[1])
+          .register(registry);
+    });
+    for (String replica : replicas.keySet()) {
+      Gauge.builder("users.datasource.replica.lag", lagMillis,
+              lags -> lags.get(replica) == UNAVAILABLE ? Double.NaN : lags.get(replica))
+          .tag("replica", replica)
+          .baseUnit("milliseconds")
+          .register(registry);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual Thread Configuration
+ * Active with app.execution.mode=virtual (the virtual profile). Tomcat then
+ * runs every request on its own virtual thread instead of its bounded worker
+ * pool, so requests blocked on JDBC or on the password hasher no longer hold
+ * a platform thread. The application task executor, used for streamed
+ * responses, gets virtual threads as well.
+ * Concurrency towards the database is bounded by the connection pool alone.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.execution.mode", havingValue = "virtual")
+public class VirtualThreadConfig {
+
+  @Bean
+  public TomcatProtocolHandlerCustomizer<AbstractProtocol<?>> virtualThreadProtocolHandlerCustomizer() {
+    return protocolHandler -> protocolHandler.setExecutor(
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-virtual-", 0).factory()));
+  }
+
+  @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+  public AsyncTaskExecutor applicationTaskExecutor() {
+    return new TaskExecutorAdapter(
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("task-virtual-", 0).factory()));
+  }
+}
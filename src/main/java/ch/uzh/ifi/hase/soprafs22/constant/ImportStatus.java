@@ -0,0 +1,5 @@
+package ch.uzh.ifi.hase.soprafs22.constant;
+
+public enum ImportStatus {
+  CREATED, DUPLICATE, CONFLICT, INVALID;
+}
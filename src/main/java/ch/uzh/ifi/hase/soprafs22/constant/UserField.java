@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs22.constant;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * User Field
+ * The fields of a user that can be selected with ?fields=. The name is both
+ * the JSON property of UserGetDTO/FullUserGetDTO and the attribute of the User
+ * entity, so it is the only list of selectable fields: the service checks the
+ * request against it, the repository builds its select clause from it and the
+ * controller reads the profile fields with it.
+ */
+public enum UserField {
+  ID("id", User::getId),
+  NAME("name", User::getName),
+  USERNAME("username", User::getUsername),
+  STATUS("status", User::getStatus),
+  CREATION_DATE("creation_date", User::getCreation_date),
+  BIRTHDAY("birthday", User::getBirthday);
+
+  // fields of UserGetDTO, selectable for GET /users
+  public static final List<UserField> USER_LIST_FIELDS = List.of(ID, NAME, USERNAME, STATUS);
+
+  // fields of FullUserGetDTO, selectable for GET /users/{id}
+  public static final List<UserField> PROFILE_FIELDS = List.of(ID, USERNAME, STATUS, CREATION_DATE, BIRTHDAY);
+
+  private final String fieldName;
+
+  private final Function<User, Object> getter;
+
+  UserField(String fieldName, Function<User, Object> getter) {
+    this.fieldName = fieldName;
+    this.getter = getter;
+  }
+
+  public String getFieldName() {
+    return fieldName;
+  }
+
+  public Object readFrom(User user) {
+    return getter.apply(user);
+  }
+}
@@ -0,0 +1,150 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.*;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.security.LoginRateLimiter;
+import ch.uzh.ifi.hase.soprafs22.service.ReactiveUserService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Reactive User Controller
+ * The /users, /login, /users/{id} and /logout/{id} endpoints of the
+ * UserController on WebFlux, for the reactive profile. Requests and responses
+ * are the same; the handlers return Mono/Flux and never block, the user list
+ * is written as the rows arrive and only as fast as the client reads it.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserController {
+
+    private final ReactiveUserService userService;
+    private final LoginRateLimiter loginRateLimiter;
+    ReactiveUserController(ReactiveUserService userService, LoginRateLimiter loginRateLimiter) {
+        this.userService = userService;
+        this.loginRateLimiter = loginRateLimiter;
+    }
+
+    /*
+    Get all users
+    */
+    @GetMapping("/users")
+    public Mono<ResponseEntity<Flux<UserGetDTO>>> getAllUsers(ServerWebExchange exchange) {
+        // answer If-None-Match with 304 before anything is loaded
+        return userService.getUsersETag().flatMap(eTag -> {
+            if (exchange.checkNotModified(eTag)) {
+                return Mono.empty();
+            }
+            Flux<UserGetDTO> userGetDTOs = userService.getUsers().map(DTOMapper.INSTANCE::convertUserSummaryToUserGetDTO);
+            return Mono.just(ResponseEntity.ok().eTag(eTag).body(userGetDTOs));
+        });
+    }
+
+    /*
+    Get one page of users, keyed on the user id: /users?after=<id>&limit=<n>
+    The returned next cursor is null once the last page has been reached.
+    */
+    @GetMapping(value = "/users", params = { "limit", "!stream" })
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<UserPageGetDTO> getUsersPage(@RequestParam(value = "after", defaultValue = "0") Long after,
+                                             @RequestParam("limit") int limit) {
+        return userService.getUsersAfter(after, limit)
+                .collectList()
+                .map(users -> {
+                    UserPageGetDTO page = new UserPageGetDTO();
+                    page.setUsers(users.stream().map(DTOMapper.INSTANCE::convertUserSummaryToUserGetDTO).toList());
+                    if (users.size() == limit) {
+                        page.setNext(users.get(users.size() - 1).getId());
+                    }
+                    return page;
+                });
+    }
+
+    /*
+    A page cannot be streamed: /users?limit=<n>&stream=... is rejected instead of picking one of the two
+    */
+    @GetMapping(value = "/users", params = { "limit", "stream" })
+    public void getUsersPageAndStream() {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit and stream cannot be combined");
+    }
+
+    /*
+    Stream all users as newline delimited JSON: /users?stream=true
+    */
+    @GetMapping(value = "/users", params = { "stream=true", "!limit" }, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserGetDTO> streamAllUsers() {
+        return userService.getUsers().map(DTOMapper.INSTANCE::convertUserSummaryToUserGetDTO);
+    }
+
+    /*
+    Register: Post API to create new user
+     */
+    @PostMapping("/users")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<FullUserGetDTO> createUser(@RequestBody UserPostDTO userPostDTO) {
+        User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+        return userService.createUser(userInput).map(DTOMapper.INSTANCE::convertEntityToFullUserGetDTO);
+    }
+
+    /*
+    Login: Post API to login user, returns the token of a new session
+    Over the attempt limit of the username or the client address: 429 with Retry-After, before any lookup.
+     */
+    @PostMapping("/login")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<LoginUserGetDTO> loginUser(@RequestBody LoginUserPostDTO loginUserPostDTO, ServerWebExchange exchange) {
+        InetSocketAddress remoteAddress = exchange.getRequest().getRemoteAddress();
+        loginRateLimiter.acquire(loginUserPostDTO.getUsername(),
+                remoteAddress != null ? remoteAddress.getAddress().getHostAddress() : null);
+        User userInput = DTOMapper.INSTANCE.convertLoginUserPostDTOtoEntity(loginUserPostDTO);
+        return userService.loginCredentials(userInput).map(DTOMapper.INSTANCE::convertUserSessionToLoginUserGetDTO);
+    }
+
+    /*
+    Retrieve user profile from userid
+     */
+    @GetMapping(value = "/users/{id}")
+    public Mono<ResponseEntity<FullUserGetDTO>> getUserbyUserID(@PathVariable("id") long id, ServerWebExchange exchange) {
+        return userService.getUserbyUserID(id).flatMap(userData -> {
+            String eTag = eTagOf(userData);
+            if (exchange.checkNotModified(eTag)) {
+                return Mono.empty();
+            }
+            return Mono.just(ResponseEntity.ok().eTag(eTag).body(DTOMapper.INSTANCE.convertEntityToFullUserGetDTO(userData)));
+        });
+    }
+
+    private static String eTagOf(User user) {
+        // Helper method: the version covers profile edits, the status is tracked separately
+        return "\"" + user.getId() + "-" + user.getVersion() + "-" + user.getStatus() + "\"";
+    }
+
+    /*
+    Edit/Update user profile
+     */
+    @PutMapping(value = "/users/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> editUser(@RequestBody EditUserPutDTO editUserPutDTO, @PathVariable("id") Long id) {
+        User editUser = DTOMapper.INSTANCE.convertEditUserPutDTOtoEntity(editUserPutDTO);
+        editUser.setId(id);
+        return userService.editUserbyUserID(editUser).then();
+    }
+
+    /*
+    Logout: Change status of profile
+     */
+    @PutMapping(value = "/logout/{id}")
+    public Mono<FullUserGetDTO> logoutUser(@PathVariable("id") Long id) {
+        return userService.logoutUserbyUserID(id).map(DTOMapper.INSTANCE::convertEntityToFullUserGetDTO);
+    }
+}
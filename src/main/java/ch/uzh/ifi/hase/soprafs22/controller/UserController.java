@@ -1,14 +1,37 @@
 package ch.uzh.ifi.hase.soprafs22.controller;
 
+import ch.uzh.ifi.hase.soprafs22.constant.ImportStatus;
+import ch.uzh.ifi.hase.soprafs22.constant.UserField;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.*;
 import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.security.LoginRateLimiter;
 import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * User Controller
@@ -17,63 +40,329 @@ import java.util.List;
  * The controller will receive the request and delegate the execution to the
  * UserService and finally return the result.
  */
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RestController
 public class UserController {
+    static final int IMPORT_CHUNK_SIZE = 500;
+
+    // encodings of /users and /users/{id}, in the order of preference for Accept: */*
+    static final List<MediaType> USER_MEDIA_TYPES = List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR,
+            new MediaType("application", "x-jackson-smile"));
+
     private final UserService userService;
-    UserController(UserService userService) {
+    private final ObjectMapper objectMapper;
+    private final LoginRateLimiter loginRateLimiter;
+    UserController(UserService userService, ObjectMapper objectMapper, LoginRateLimiter loginRateLimiter) {
     this.userService = userService;
+    this.objectMapper = objectMapper;
+    this.loginRateLimiter = loginRateLimiter;
     }
 
     /*
     Get all users
+    /users?fields=id,status returns only the given fields and reads only their columns.
+    Besides JSON the list is available as CBOR (application/cbor) and Smile (application/x-jackson-smile).
     */
     @GetMapping("/users")
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public List<UserGetDTO> getAllUsers() {
+    public ResponseEntity<List<?>> getAllUsers(@RequestParam(value = "fields", required = false) List<String> fields,
+                                               WebRequest request) {
+        // answer If-None-Match with 304 before anything is loaded
+        MediaType mediaType = negotiate(request);
+        String eTag = userService.getUsersETag();
+        if (fields != null) {
+            eTag = eTagOf(eTag, UserService.checkFields(fields, UserField.USER_LIST_FIELDS));
+        }
+        eTag = eTagOf(eTag, mediaType);
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+
+        if (fields != null) {
+            return ok(eTag, mediaType).body(userService.getUsers(fields));
+        }
+
         // fetch all users in the internal representation
-        List<User> users = userService.getUsers();
-        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+        List<UserSummary> users = userService.getUsers();
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(users.size());
 
         // convert each user to the API representation
+        for (UserSummary user : users) {
+          userGetDTOs.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user));
+        }
+        return ok(eTag, mediaType).body(userGetDTOs);
+    }
+
+    /*
+    Get one page of users, keyed on the user id: /users?after=<id>&limit=<n>
+    The returned next cursor is null once the last page has been reached.
+    */
+    @GetMapping(value = "/users", params = { "limit", "!stream" })
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserPageGetDTO getUsersPage(@RequestParam(value = "after", defaultValue = "0") Long after,
+                                       @RequestParam("limit") int limit) {
+        List<UserSummary> users = userService.getUsersAfter(after, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(users.size());
+        for (UserSummary user : users) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user));
+        }
+
+        UserPageGetDTO page = new UserPageGetDTO();
+        page.setUsers(userGetDTOs);
+        if (users.size() == limit) {
+            page.setNext(users.get(users.size() - 1).getId());
+        }
+        return page;
+    }
+
+    /*
+    A page cannot be streamed: /users?limit=<n>&stream=... is rejected instead of picking one of the two
+    */
+    @GetMapping(value = "/users", params = { "limit", "stream" })
+    public void getUsersPageAndStream() {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit and stream cannot be combined");
+    }
+
+    /*
+    Stream all users as newline delimited JSON: /users?stream=true
+    Every user is written as soon as its row is read, memory use does not grow with the table.
+    */
+    @GetMapping(value = "/users", params = { "stream=true", "!limit" })
+    public ResponseEntity<StreamingResponseBody> streamAllUsers() {
+        StreamingResponseBody body = outputStream -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            generator.setRootValueSeparator(null);
+            userService.streamUsers(user -> {
+                try {
+                    generator.writeObject(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user));
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /*
+    Typeahead search on username and name: /users/search?q=<prefix>&limit=<n>
+    Exact matches come first, then completions in alphabetical order.
+     */
+    @GetMapping("/users/search")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserGetDTO> searchUsers(@RequestParam("q") String query,
+                                        @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        List<User> users = userService.searchUsers(query, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(users.size());
         for (User user : users) {
-          userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+            userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
         }
         return userGetDTOs;
     }
 
+    /*
+    Username availability for the sign-up form: /users/availability?username=<name>
+     */
+    @GetMapping("/users/availability")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UsernameAvailabilityGetDTO getUsernameAvailability(@RequestParam("username") String username) {
+        UsernameAvailabilityGetDTO availability = new UsernameAvailabilityGetDTO();
+        availability.setUsername(username);
+        availability.setAvailable(userService.isUsernameAvailable(username));
+        return availability;
+    }
+
     /*
     Register: Post API to create new user
+    Answered asynchronously: the request thread is released while the password is hashed.
      */
     @PostMapping("/users")
     @ResponseStatus(HttpStatus.CREATED)
     @ResponseBody
-    public FullUserGetDTO createUser(@RequestBody UserPostDTO userPostDTO) {
+    public CompletableFuture<FullUserGetDTO> createUser(@RequestBody UserPostDTO userPostDTO) {
         User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
-        User createdUser = userService.createUser(userInput);
-        return DTOMapper.INSTANCE.convertEntityToFullUserGetDTO(createdUser);
+        return userService.createUser(userInput).thenApply(DTOMapper.INSTANCE::convertEntityToFullUserGetDTO);
     }
 
     /*
-    Login: Post API to login user
+    Bulk import: create many users from a JSON array or newline delimited JSON of UserPostDTOs.
+    Rows are read and inserted in chunks; the result of every row is streamed back as NDJSON.
+     */
+    @PostMapping(value = "/users/bulk", consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+    public void importUsers(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        generator.setRootValueSeparator(null);
+
+        try (MappingIterator<UserPostDTO> rows = objectMapper.readerFor(UserPostDTO.class).readValues(request.getInputStream())) {
+            List<User> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+            int row = 0;
+            while (rows.hasNext()) {
+                chunk.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(rows.next()));
+                if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                    row = writeImportResults(generator, row, chunk);
+                    chunk.clear();
+                }
+            }
+            writeImportResults(generator, row, chunk);
+        }
+        generator.flush();
+    }
+
+    private int writeImportResults(JsonGenerator generator, int row, List<User> chunk) throws IOException {
+        // Helper method: imports one chunk and writes one result line per row
+        if (chunk.isEmpty()) {
+            return row;
+        }
+        List<ImportStatus> results = userService.importUsers(chunk);
+        for (int i = 0; i < chunk.size(); i++) {
+            UserImportResultGetDTO result = new UserImportResultGetDTO();
+            result.setRow(row++);
+            result.setUsername(chunk.get(i).getUsername());
+            result.setStatus(results.get(i));
+            if (results.get(i) == ImportStatus.CREATED) {
+                result.setId(chunk.get(i).getId());
+            }
+            generator.writeObject(result);
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+        return row;
+    }
+
+    /*
+    Login: Post API to login user, returns the token of a new session
+    Over the attempt limit of the username or the client address: 429 with Retry-After, before any lookup.
+    Answered asynchronously like the registration, the password check does not hold the request thread.
      */
     @PostMapping("/login")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO loginUser(@RequestBody LoginUserPostDTO loginUserPostDTO) {
+    public CompletableFuture<LoginUserGetDTO> loginUser(@RequestBody LoginUserPostDTO loginUserPostDTO, HttpServletRequest request) {
+        loginRateLimiter.acquire(loginUserPostDTO.getUsername(), request.getRemoteAddr());
         User userInput = DTOMapper.INSTANCE.convertLoginUserPostDTOtoEntity(loginUserPostDTO);
-        User userData = userService.loginCredentials(userInput);
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userData);
+        return userService.loginCredentials(userInput).thenApply(DTOMapper.INSTANCE::convertUserSessionToLoginUserGetDTO);
     }
 
     /*
     Retrieve user profile from userid
+    /users/{id}?fields=id,birthday returns only the given fields; JSON, CBOR and Smile as for /users.
      */
     @GetMapping(value = "/users/{id}")
     @ResponseBody
-    public FullUserGetDTO getUserbyUserID(@PathVariable("id") long id) {
+    public ResponseEntity<Object> getUserbyUserID(@PathVariable("id") long id,
+                                                  @RequestParam(value = "fields", required = false) List<String> fields,
+                                                  WebRequest request) {
+      List<UserField> selectedFields = fields != null ? UserService.checkFields(fields, UserField.PROFILE_FIELDS) : null;
+      MediaType mediaType = negotiate(request);
       User userData = userService.getUserbyUserID(id);
-      return DTOMapper.INSTANCE.convertEntityToFullUserGetDTO(userData);
+      String eTag = selectedFields != null ? eTagOf(eTagOf(userData), selectedFields) : eTagOf(userData);
+      eTag = eTagOf(eTag, mediaType);
+      if (request.checkNotModified(eTag)) {
+          return null;
+      }
+      Object body = selectedFields != null ? selectFields(userData, selectedFields)
+              : DTOMapper.INSTANCE.convertEntityToFullUserGetDTO(userData);
+      return ok(eTag, mediaType).body(body);
+    }
+
+    private static String eTagOf(User user) {
+        // Helper method: the version covers profile edits, the status is tracked separately
+        return "\"" + user.getId() + "-" + user.getVersion() + "-" + user.getStatus() + "\"";
+    }
+
+    private static String eTagOf(String eTag, List<UserField> fields) {
+        // Helper method: a selection of fields is a representation of its own
+        return eTag.substring(0, eTag.length() - 1) + "-"
+                + fields.stream().map(UserField::getFieldName).collect(Collectors.joining(".")) + "\"";
+    }
+
+    private static String eTagOf(String eTag, MediaType mediaType) {
+        // Helper method: CBOR and Smile are representations of their own, a strong ETag must differ
+        // with the bytes; JSON keeps the plain ETag
+        if (mediaType == null || mediaType.equals(MediaType.APPLICATION_JSON)) {
+            return eTag;
+        }
+        return eTag.substring(0, eTag.length() - 1) + "-" + mediaType.getSubtype() + "\"";
+    }
+
+    private static MediaType negotiate(WebRequest request) {
+        // Helper method: the encoding of USER_MEDIA_TYPES the client prefers, null if it accepts none of them.
+        // The response is written in exactly this type, so it matches the ETag.
+        List<MediaType> acceptedTypes;
+        try {
+            String accept = request.getHeader(HttpHeaders.ACCEPT);
+            acceptedTypes = new ArrayList<>(accept != null ? MediaType.parseMediaTypes(accept) : List.of(MediaType.ALL));
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+        for (MediaType acceptedType : acceptedTypes) {
+            for (MediaType userMediaType : USER_MEDIA_TYPES) {
+                if (acceptedType.isCompatibleWith(userMediaType) && acceptedType.getQualityValue() > 0) {
+                    return userMediaType;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static ResponseEntity.BodyBuilder ok(String eTag, MediaType mediaType) {
+        // Helper method: 200 with the ETag, and the negotiated encoding unless the converters have to refuse
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT);
+        return mediaType != null ? response.contentType(mediaType) : response;
+    }
+
+    private static Map<String, Object> selectFields(User user, List<UserField> fields) {
+        // Helper method: only the FullUserGetDTO fields that were asked for, in the order they were asked for
+        Map<String, Object> selected = new LinkedHashMap<>();
+        for (UserField field : fields) {
+            selected.put(field.getFieldName(), field.readFrom(user));
+        }
+        return selected;
+    }
+
+    /*
+    Get the profiles of many users in one request: /users/batch?ids=1,2,3
+    The users are returned in the order of the ids; an id without user is null and listed in missing.
+     */
+    @GetMapping(value = "/users/batch")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserBatchGetDTO getUsersBatch(@RequestParam("ids") List<Long> ids) {
+        return toUserBatchGetDTO(ids, userService.getUsersByIds(ids));
+    }
+
+    /*
+    Same as GET /users/batch, with the ids as JSON array in the body for lists too long for a URL
+     */
+    @PostMapping(value = "/users/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserBatchGetDTO postUsersBatch(@RequestBody List<Long> ids) {
+        return toUserBatchGetDTO(ids, userService.getUsersByIds(ids));
+    }
+
+    private static UserBatchGetDTO toUserBatchGetDTO(List<Long> ids, List<User> users) {
+        // Helper method: one DTO per requested id, missing ids stay in place as null
+        List<FullUserGetDTO> userGetDTOs = new ArrayList<>(users.size());
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (user == null) {
+                missing.add(ids.get(i));
+            }
+            userGetDTOs.add(user != null ? DTOMapper.INSTANCE.convertEntityToFullUserGetDTO(user) : null);
+        }
+        UserBatchGetDTO batch = new UserBatchGetDTO();
+        batch.setUsers(userGetDTOs);
+        batch.setMissing(missing);
+        return batch;
     }
 
     /*
@@ -0,0 +1,39 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+
+import ch.uzh.ifi.hase.soprafs22.events.UserEventBroadcaster;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * User Event Controller
+ * This class is responsible for the server-sent event stream of user changes.
+ * Clients load GET /users once and then apply the pushed deltas instead of
+ * polling the user list.
+ */
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RestController
+public class UserEventController {
+
+    private final UserEventBroadcaster userEventBroadcaster;
+
+    UserEventController(UserEventBroadcaster userEventBroadcaster) {
+        this.userEventBroadcaster = userEventBroadcaster;
+    }
+
+    /*
+    Subscribe to user changes: GET /users/events
+    "user" events carry the id and the changed fields (status, username, birthday) of one user.
+    A "reset" event means missed events could not be replayed and the user list has to be reloaded.
+    Reconnects resume after the Last-Event-ID header, or the since parameter for clients that cannot set it.
+    */
+    @GetMapping(value = "/users/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                @RequestParam(value = "since", required = false) String since) {
+        return userEventBroadcaster.subscribe(lastEventId != null ? lastEventId : since);
+    }
+}
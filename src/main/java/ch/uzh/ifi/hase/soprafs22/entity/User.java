@@ -1,6 +1,8 @@
 package ch.uzh.ifi.hase.soprafs22.entity;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -15,15 +17,22 @@ import java.util.Date;
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes
  * the primary key
+ * The entity is cacheable in the Hibernate second-level cache, which is only
+ * enabled with the l2cache profile.
+ * USER is a keyword since H2 2.x, the table name is therefore quoted.
  */
 @Entity
-@Table(name = "USER")
+@Table(name = "`USER`")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class User implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  // ids are pre-allocated in blocks of 50, so batched inserts need no sequence round-trip per row
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+  @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = 50)
   private Long id;
 
   @Column
@@ -35,7 +44,8 @@ public class User implements Serializable {
   @Column(nullable = false, unique = true)
   private String token;
 
-  @Column(nullable = false)
+  // written through the PresenceTracker, JPA only sets it on insert
+  @Column(nullable = false, updatable = false)
   private UserStatus status;
 
   @Column(nullable = false)
@@ -47,6 +57,10 @@ public class User implements Serializable {
   @Column
   private Date birthday;
 
+  // bumped by Hibernate on every profile update, part of the ETag of the user
+  @Version
+  private Long version;
+
   public Long getId() {
     return id;
   }
@@ -101,4 +115,12 @@ public class User implements Serializable {
   public void setBirthday(Date birthday) {
     this.birthday = birthday;
   }
+
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
 }
@@ -0,0 +1,78 @@
+package ch.uzh.ifi.hase.soprafs22.events;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Date;
+
+/**
+ * User Change Event
+ * Compact delta of one user: only the fields that changed are set.
+ * Published by the UserService and pushed to the subscribers of
+ * GET /users/events by the UserEventBroadcaster, which assigns the sequence
+ * number. Events are immutable; merge combines two deltas of the same user.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserChangeEvent {
+
+  private final long sequence;
+  private final Long id;
+  private final String username;
+  private final Date birthday;
+  private final UserStatus status;
+
+  private UserChangeEvent(long sequence, Long id, String username, Date birthday, UserStatus status) {
+    this.sequence = sequence;
+    this.id = id;
+    this.username = username;
+    this.birthday = birthday;
+    this.status = status;
+  }
+
+  public static UserChangeEvent created(User user) {
+    return new UserChangeEvent(0, user.getId(), user.getUsername(), user.getBirthday(), user.getStatus());
+  }
+
+  public static UserChangeEvent statusChanged(Long userId, UserStatus status) {
+    return new UserChangeEvent(0, userId, null, null, status);
+  }
+
+  public static UserChangeEvent profileChanged(User user) {
+    return new UserChangeEvent(0, user.getId(), user.getUsername(), user.getBirthday(), null);
+  }
+
+  UserChangeEvent withSequence(long sequence) {
+    return new UserChangeEvent(sequence, id, username, birthday, status);
+  }
+
+  UserChangeEvent merge(UserChangeEvent later) {
+      // Returns: one delta with the fields of both events, the later event wins
+    return new UserChangeEvent(later.sequence, id,
+        later.username != null ? later.username : username,
+        later.birthday != null ? later.birthday : birthday,
+        later.status != null ? later.status : status);
+  }
+
+  @JsonIgnore
+  public long getSequence() {
+    return sequence;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public Date getBirthday() {
+    return birthday;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+}
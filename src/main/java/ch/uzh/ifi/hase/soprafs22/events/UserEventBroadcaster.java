@@ -0,0 +1,279 @@
+package ch.uzh.ifi.hase.soprafs22.events;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * User Event Broadcaster
+ * Pushes user changes to the subscribers of GET /users/events (server-sent
+ * events), so clients do not have to poll GET /users.
+ * Every committed change gets a sequence number and is kept in a bounded
+ * history. A reconnecting client sends the id of the last event it has seen
+ * (Last-Event-ID) and gets the missed events replayed; if they are no longer
+ * in the history, it is told to reload the user list. Events are sent after a
+ * short coalescing delay, never on the request thread. The small scheduler only
+ * keeps time, the sends run on a pool that grows with the writes in progress,
+ * so a client that reads slowly blocks a thread of its own and not the streams
+ * of the others. Its write fails with the write timeout of the server and the
+ * subscriber is dropped.
+ */
+@Component
+public class UserEventBroadcaster implements MeterBinder {
+
+  static final String USER_EVENT = "user";
+
+  static final String RESET_EVENT = "reset";
+
+  // sequence numbers restart with the application, the epoch tells a stale Last-Event-ID apart
+  private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+  private final int historySize;
+
+  private final int bufferSize;
+
+  private final long coalesceMillis;
+
+  private final long timeoutMillis;
+
+  private final ScheduledExecutorService scheduler;
+
+  // platform threads: Spring writes to the emitter inside a monitor, a virtual thread would pin its carrier
+  private final ExecutorService senders;
+
+  // guarded by itself, together with lastSequence and the fan-out to the subscriptions
+  private final Deque<UserChangeEvent> history = new ArrayDeque<>();
+
+  private long lastSequence;
+
+  private final Set<UserEventSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder published = new LongAdder();
+
+  private final LongAdder delivered = new LongAdder();
+
+  private final LongAdder resets = new LongAdder();
+
+  public UserEventBroadcaster(@Value("${app.events.history-size:1024}") int historySize,
+                              @Value("${app.events.buffer-size:256}") int bufferSize,
+                              @Value("${app.events.coalesce-ms:100}") long coalesceMillis,
+                              @Value("${app.events.heartbeat-seconds:15}") long heartbeatSeconds,
+                              @Value("${app.events.timeout-minutes:30}") long timeoutMinutes,
+                              @Value("${app.events.threads:2}") int threads) {
+    AtomicInteger threadCount = new AtomicInteger();
+    AtomicInteger senderCount = new AtomicInteger();
+    this.historySize = historySize;
+    this.bufferSize = bufferSize;
+    this.coalesceMillis = coalesceMillis;
+    this.timeoutMillis = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+    this.scheduler = new ScheduledThreadPoolExecutor(threads, runnable -> {
+      Thread thread = new Thread(runnable, "user-events-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.senders = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "user-events-send-" + senderCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangeEvent event) {
+      // Runs after the commit of the change, rolled back changes are never sent
+    List<UserEventSubscription> toDrain = new ArrayList<>();
+    synchronized (history) {
+      UserChangeEvent sequenced = event.withSequence(++lastSequence);
+      history.addLast(sequenced);
+      if (history.size() > historySize) {
+        history.removeFirst();
+      }
+      for (UserEventSubscription subscription : subscriptions) {
+        if (subscription.offer(sequenced)) {
+          toDrain.add(subscription);
+        }
+      }
+    }
+    published.increment();
+    toDrain.forEach(this::scheduleDrain);
+  }
+
+  public SseEmitter subscribe(String lastEventId) {
+      // Input: id of the last event the client has seen, null for a client that has just loaded the user list
+      // Returns: the emitter of the new subscription
+    SseEmitter emitter = new SseEmitter(timeoutMillis);
+    register(emitter, lastEventId);
+    return emitter;
+  }
+
+  UserEventSubscription register(SseEmitter emitter, String lastEventId) {
+    UserEventSubscription subscription = new UserEventSubscription(emitter, bufferSize);
+    emitter.onCompletion(() -> subscriptions.remove(subscription));
+    emitter.onError(error -> subscriptions.remove(subscription));
+
+    boolean drain;
+    synchronized (history) {
+      drain = lastEventId != null && replay(subscription, lastEventId);
+      subscriptions.add(subscription);
+    }
+    if (drain) {
+      scheduleDrain(subscription);
+    }
+    return subscription;
+  }
+
+  private boolean replay(UserEventSubscription subscription, String lastEventId) {
+      // Helper method, called with the history lock held: offers the events after lastEventId.
+      // Returns: true if a drain has to be scheduled
+    long since = sequenceOf(lastEventId);
+    UserChangeEvent oldest = history.peekFirst();
+    if (since < 0 || since > lastSequence || (oldest != null && oldest.getSequence() > since + 1)) {
+      return subscription.reset();
+    }
+    boolean drain = false;
+    for (UserChangeEvent event : history) {
+      if (event.getSequence() > since) {
+        drain |= subscription.offer(event);
+      }
+    }
+    return drain;
+  }
+
+  private long sequenceOf(String eventId) {
+      // Returns: the sequence number of an event id of this epoch, -1 otherwise
+    int separator = eventId.indexOf('-');
+    if (separator < 0 || !epoch.equals(eventId.substring(0, separator))) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(eventId.substring(separator + 1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  String eventId(long sequence) {
+    return epoch + "-" + sequence;
+  }
+
+  private void scheduleDrain(UserEventSubscription subscription) {
+    try {
+      scheduler.schedule(() -> send(() -> drain(subscription)), coalesceMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // shutting down, the subscription is completed by shutdown()
+    }
+  }
+
+  private void send(Runnable sending) {
+    try {
+      senders.execute(sending);
+    } catch (RejectedExecutionException e) {
+      // shutting down, the subscription is completed by shutdown()
+    }
+  }
+
+  private void drain(UserEventSubscription subscription) {
+    SseEmitter emitter = subscription.emitter();
+    // take and send under one lock, so two drains of a subscription cannot reorder its events
+    Lock sendLock = subscription.sendLock();
+    sendLock.lock();
+    try {
+      List<UserChangeEvent> events = subscription.takePending();
+      if (events == null) {
+        long sequence;
+        synchronized (history) {
+          sequence = lastSequence;
+        }
+        emitter.send(SseEmitter.event().name(RESET_EVENT).id(eventId(sequence))
+            .data(Collections.emptyMap(), MediaType.APPLICATION_JSON));
+        resets.increment();
+        return;
+      }
+      for (UserChangeEvent event : events) {
+        emitter.send(SseEmitter.event().name(USER_EVENT).id(eventId(event.getSequence()))
+            .data(event, MediaType.APPLICATION_JSON));
+      }
+      delivered.add(events.size());
+    } catch (IOException | IllegalStateException e) {
+      // client has gone away or the emitter is already completed
+      subscriptions.remove(subscription);
+      emitter.completeWithError(e);
+    } finally {
+      sendLock.unlock();
+    }
+  }
+
+  private void heartbeat() {
+      // Comment lines keep proxies from closing idle streams and detect dead clients
+    for (UserEventSubscription subscription : subscriptions) {
+      send(() -> heartbeat(subscription));
+    }
+  }
+
+  private void heartbeat(UserEventSubscription subscription) {
+    SseEmitter emitter = subscription.emitter();
+    Lock sendLock = subscription.sendLock();
+    // a stream that is being written to is not idle, and a stuck write must not collect heartbeats
+    if (!sendLock.tryLock()) {
+      return;
+    }
+    try {
+      emitter.send(SseEmitter.event().comment("keep-alive"));
+    } catch (IOException | IllegalStateException e) {
+      subscriptions.remove(subscription);
+      emitter.completeWithError(e);
+    } finally {
+      sendLock.unlock();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    scheduler.shutdownNow();
+    senders.shutdownNow();
+    subscriptions.forEach(subscription -> subscription.emitter().complete());
+    subscriptions.clear();
+  }
+
+  public int subscribers() {
+    return subscriptions.size();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("users.events.subscribers", subscriptions, Set::size)
+        .register(registry);
+    FunctionCounter.builder("users.events.published", published, LongAdder::sum)
+        .register(registry);
+    FunctionCounter.builder("users.events.delivered", delivered, LongAdder::sum)
+        .register(registry);
+    FunctionCounter.builder("users.events.resets", resets, LongAdder::sum)
+        .register(registry);
+  }
+}
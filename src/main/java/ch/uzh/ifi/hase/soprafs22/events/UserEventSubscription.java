@@ -0,0 +1,86 @@
+package ch.uzh.ifi.hase.soprafs22.events;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * User Event Subscription
+ * Bounded buffer of the events not yet sent to one subscriber. Events of the
+ * same user are coalesced while they wait (a fast ONLINE/OFFLINE flip is sent
+ * as its final state only). If the buffer runs full, the pending events are
+ * dropped and the subscriber is told to reload the user list instead.
+ */
+class UserEventSubscription {
+
+  private final SseEmitter emitter;
+
+  private final int capacity;
+
+  // held while sending to the emitter
+  private final Lock sendLock = new ReentrantLock();
+
+  // keyed on the user id, in the order of the latest event per user
+  private final Map<Long, UserChangeEvent> pending = new LinkedHashMap<>();
+
+  private boolean overflowed;
+
+  private boolean drainScheduled;
+
+  UserEventSubscription(SseEmitter emitter, int capacity) {
+    this.emitter = emitter;
+    this.capacity = capacity;
+  }
+
+  SseEmitter emitter() {
+    return emitter;
+  }
+
+  Lock sendLock() {
+    return sendLock;
+  }
+
+  synchronized boolean offer(UserChangeEvent event) {
+      // Input: next event of the stream
+      // Returns: true if the caller has to schedule a drain of this subscription
+    if (!overflowed) {
+      UserChangeEvent previous = pending.remove(event.getId());
+      pending.put(event.getId(), previous != null ? previous.merge(event) : event);
+      if (pending.size() > capacity) {
+        pending.clear();
+        overflowed = true;
+      }
+    }
+    return scheduleDrain();
+  }
+
+  synchronized boolean reset() {
+      // Marks the subscriber as out of sync, used when a resume is not possible
+    pending.clear();
+    overflowed = true;
+    return scheduleDrain();
+  }
+
+  private boolean scheduleDrain() {
+    if (drainScheduled) {
+      return false;
+    }
+    drainScheduled = true;
+    return true;
+  }
+
+  synchronized List<UserChangeEvent> takePending() {
+      // Returns: the coalesced events in sequence order, or null if the subscriber has to reload.
+      // Offers after this call schedule a new drain.
+    List<UserChangeEvent> events = overflowed ? null : new ArrayList<>(pending.values());
+    pending.clear();
+    overflowed = false;
+    drainScheduled = false;
+    return events;
+  }
+}
@@ -2,6 +2,8 @@ package ch.uzh.ifi.hase.soprafs22.exceptions;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -15,10 +17,14 @@ import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import javax.servlet.http.HttpServletRequest;
+import java.sql.SQLException;
 
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @ControllerAdvice(annotations = RestController.class)
 public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
 
+  private static final String UNIQUE_VIOLATION = "23505";
+
   private final Logger log = LoggerFactory.getLogger(GlobalExceptionAdvice.class);
 
   @ExceptionHandler(value = { IllegalArgumentException.class, IllegalStateException.class })
@@ -27,6 +33,27 @@ public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
     return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
   }
 
+  // Inserts and updates rely on the constraints of the USER table instead of checking first.
+  // A unique violation (SQLSTATE 23505) is a taken username, anything else is incomplete input.
+  @ExceptionHandler(DataIntegrityViolationException.class)
+  protected ResponseEntity<Object> handleDataIntegrityViolation(DataIntegrityViolationException ex, WebRequest request) {
+    if (UNIQUE_VIOLATION.equals(sqlStateOf(ex))) {
+      String bodyOfResponse = "The username provided is not unique. Therefore, the user could not be saved!";
+      return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.CONFLICT, request);
+    }
+    String bodyOfResponse = "The user provided is incomplete. Therefore, the user could not be saved!";
+    return handleExceptionInternal(ex, bodyOfResponse, new HttpHeaders(), HttpStatus.BAD_REQUEST, request);
+  }
+
+  private static String sqlStateOf(Throwable ex) {
+    for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLException) {
+        return ((SQLException) cause).getSQLState();
+      }
+    }
+    return null;
+  }
+
   @ExceptionHandler(TransactionSystemException.class)
   public ResponseStatusException handleTransactionSystemException(Exception ex, HttpServletRequest request) {
     log.error("Request: {} raised {}", request.getRequestURL(), ex);
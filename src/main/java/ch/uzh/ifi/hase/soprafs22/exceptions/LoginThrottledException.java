@@ -0,0 +1,31 @@
+package ch.uzh.ifi.hase.soprafs22.exceptions;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Too many login attempts for a username or from a client address. Answered
+ * with 429 TOO MANY REQUESTS and a Retry-After header, by Spring MVC and
+ * WebFlux alike.
+ */
+public class LoginThrottledException extends ResponseStatusException {
+
+  private final long retryAfterSeconds;
+
+  public LoginThrottledException(long retryAfterSeconds) {
+    super(HttpStatus.TOO_MANY_REQUESTS, "Too many login attempts, try again later");
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  @Override
+  public HttpHeaders getResponseHeaders() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+    return headers;
+  }
+}
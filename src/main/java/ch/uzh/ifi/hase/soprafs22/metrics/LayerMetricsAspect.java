@@ -0,0 +1,96 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Layer Metrics Aspect
+ * Times every UserService method and every UserRepository query.
+ * - users.service: latency per method, tagged with the resulting HttpStatus
+ * - users.repository: latency per query method and outcome
+ * - users.repository.rows: number of rows a query returned
+ * Controller endpoints are covered by the http.server.requests timer that
+ * Spring Boot records per uri and status.
+ */
+@Aspect
+@Component
+public class LayerMetricsAspect {
+
+  private final MeterRegistry registry;
+
+  public LayerMetricsAspect(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Around("execution(public * ch.uzh.ifi.hase.soprafs22.service.UserService.*(..))")
+  public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable {
+    Timer.Sample sample = Timer.start(registry);
+    String status = HttpStatus.OK.name();
+    try {
+      return joinPoint.proceed();
+    } catch (ResponseStatusException e) {
+      status = e.getStatus().name();
+      throw e;
+    } catch (Throwable e) {
+      status = HttpStatus.INTERNAL_SERVER_ERROR.name();
+      throw e;
+    } finally {
+      sample.stop(registry.timer("users.service", "method", joinPoint.getSignature().getName(), "status", status));
+    }
+  }
+
+  @Around("execution(* ch.uzh.ifi.hase.soprafs22.repository.UserRepository+.*(..))")
+  public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+    String method = joinPoint.getSignature().getName();
+    Timer.Sample sample = Timer.start(registry);
+    String outcome = "SUCCESS";
+    try {
+      Object result = joinPoint.proceed();
+      int rows = rowsOf(result);
+      if (rows >= 0) {
+        DistributionSummary.builder("users.repository.rows")
+            .tag("method", method)
+            .register(registry)
+            .record(rows);
+      }
+      return result;
+    } catch (Throwable e) {
+      outcome = e.getClass().getSimpleName();
+      throw e;
+    } finally {
+      sample.stop(registry.timer("users.repository", "method", method, "outcome", outcome));
+    }
+  }
+
+  private static int rowsOf(Object result) {
+      // Returns: number of rows in the query result, -1 if it cannot be counted (streams, counts, void)
+    if (result == null) {
+      return 0;
+    }
+    if (result instanceof Collection) {
+      return ((Collection<?>) result).size();
+    }
+    if (result instanceof Slice) {
+      return ((Slice<?>) result).getNumberOfElements();
+    }
+    if (result instanceof Optional) {
+      return ((Optional<?>) result).isPresent() ? 1 : 0;
+    }
+    if (result instanceof Iterable || result instanceof AutoCloseable || result instanceof Number
+        || result instanceof Boolean) {
+      return -1;
+    }
+    return 1;
+  }
+}
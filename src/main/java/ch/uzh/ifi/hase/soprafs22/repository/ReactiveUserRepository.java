@@ -0,0 +1,171 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Row;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Reactive User Repository
+ * Non-blocking access to the USER table over R2DBC for the reactive profile,
+ * with the queries the servlet stack gets from UserRepository. The rows are
+ * the ones written by JPA: the status is stored as ordinal, the version is
+ * bumped on every profile or password change.
+ * Ids come from the same user_seq sequence as the JPA inserts. Every insert
+ * takes one value of its own, which never collides with the blocks that
+ * Hibernate allocates from the sequence.
+ */
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserRepository {
+
+  private static final String USER_COLUMNS = "id, name, username, token, status, password, creation_date, birthday, version";
+
+  private final DatabaseClient databaseClient;
+
+  private final String nextIdSql;
+
+  public ReactiveUserRepository(ConnectionFactory connectionFactory) {
+    this.databaseClient = DatabaseClient.create(connectionFactory);
+    this.nextIdSql = "PostgreSQL".equals(connectionFactory.getMetadata().getName())
+        ? "SELECT nextval('user_seq')" : "SELECT NEXT VALUE FOR user_seq";
+  }
+
+  public Flux<UserSummary> findAllSummaries() {
+      // rows are read as the subscriber requests them
+    return databaseClient.sql("SELECT id, name, username, status FROM \"USER\" ORDER BY id")
+        .map(ReactiveUserRepository::toSummary)
+        .all();
+  }
+
+  public Flux<UserSummary> findSummariesAfter(Long after, int limit) {
+    return databaseClient.sql("SELECT id, name, username, status FROM \"USER\" WHERE id > :after ORDER BY id LIMIT :limit")
+        .bind("after", after)
+        .bind("limit", limit)
+        .map(ReactiveUserRepository::toSummary)
+        .all();
+  }
+
+  public Mono<String> findTableVersion() {
+      // Returns: the aggregate of UserRepository.findTableVersion as count-maxId-versionSum
+    return databaseClient.sql("SELECT COUNT(*) AS row_count, MAX(id) AS max_id,"
+            + " CAST(SUM(version) AS BIGINT) AS version_sum FROM \"USER\"")
+        .map(row -> String.format("%d-%d-%d", row.get("row_count", Long.class),
+            valueOrZero(row.get("max_id", Long.class)), valueOrZero(row.get("version_sum", Long.class))))
+        .one();
+  }
+
+  public Mono<User> findById(Long id) {
+    return databaseClient.sql("SELECT " + USER_COLUMNS + " FROM \"USER\" WHERE id = :id")
+        .bind("id", id)
+        .map(ReactiveUserRepository::toUser)
+        .one();
+  }
+
+  public Mono<User> findByUsername(String username) {
+    return databaseClient.sql("SELECT " + USER_COLUMNS + " FROM \"USER\" WHERE username = :username")
+        .bind("username", username)
+        .map(ReactiveUserRepository::toUser)
+        .one();
+  }
+
+  public Mono<User> insert(User user) {
+      // Returns: the user with its new id and version 0
+      // Throws: DataIntegrityViolationException on a taken username or missing column
+    return databaseClient.sql(nextIdSql)
+        .map(row -> row.get(0, Long.class))
+        .one()
+        .flatMap(id -> {
+          DatabaseClient.GenericExecuteSpec insert = databaseClient.sql("INSERT INTO \"USER\" (" + USER_COLUMNS + ")"
+                  + " VALUES (:id, :name, :username, :token, :status, :password, :creationDate, :birthday, 0)")
+              .bind("id", id)
+              .bind("token", user.getToken())
+              .bind("status", user.getStatus().ordinal())
+              .bind("creationDate", toLocalDateTime(user.getCreation_date()));
+          insert = bindNullable(insert, "name", user.getName(), String.class);
+          insert = bindNullable(insert, "username", user.getUsername(), String.class);
+          insert = bindNullable(insert, "password", user.getPassword(), String.class);
+          insert = bindNullable(insert, "birthday", toLocalDateTime(user.getBirthday()), LocalDateTime.class);
+          return insert.then().then(Mono.fromSupplier(() -> {
+            user.setId(id);
+            user.setVersion(0L);
+            return user;
+          }));
+        });
+  }
+
+  public Mono<Boolean> updateProfile(User user) {
+      // Input: user with the new username and birthday, and the version it was read with
+      // Returns: false if the user has been changed concurrently since then
+    DatabaseClient.GenericExecuteSpec update = databaseClient.sql("UPDATE \"USER\" SET username = :username,"
+            + " birthday = :birthday, version = version + 1 WHERE id = :id AND version = :version")
+        .bind("username", user.getUsername())
+        .bind("id", user.getId())
+        .bind("version", user.getVersion());
+    update = bindNullable(update, "birthday", toLocalDateTime(user.getBirthday()), LocalDateTime.class);
+    return update.fetch().rowsUpdated().map(rows -> {
+      if (rows == 0) {
+        return false;
+      }
+      user.setVersion(user.getVersion() + 1);
+      return true;
+    });
+  }
+
+  public Mono<User> updatePassword(User user) {
+    return databaseClient.sql("UPDATE \"USER\" SET password = :password, version = version + 1 WHERE id = :id")
+        .bind("password", user.getPassword())
+        .bind("id", user.getId())
+        .then()
+        .then(Mono.fromSupplier(() -> {
+          user.setVersion(user.getVersion() == null ? null : user.getVersion() + 1);
+          return user;
+        }));
+  }
+
+  private static DatabaseClient.GenericExecuteSpec bindNullable(DatabaseClient.GenericExecuteSpec spec, String name,
+                                                               Object value, Class<?> type) {
+    return value != null ? spec.bind(name, value) : spec.bindNull(name, type);
+  }
+
+  private static UserSummary toSummary(Row row) {
+    return new UserSummary(row.get("id", Long.class), row.get("name", String.class),
+        row.get("username", String.class), UserStatus.values()[row.get("status", Integer.class)]);
+  }
+
+  private static User toUser(Row row) {
+    User user = new User();
+    user.setId(row.get("id", Long.class));
+    user.setName(row.get("name", String.class));
+    user.setUsername(row.get("username", String.class));
+    user.setToken(row.get("token", String.class));
+    user.setStatus(UserStatus.values()[row.get("status", Integer.class)]);
+    user.setPassword(row.get("password", String.class));
+    user.setCreation_date(toDate(row.get("creation_date", LocalDateTime.class)));
+    user.setBirthday(toDate(row.get("birthday", LocalDateTime.class)));
+    user.setVersion(row.get("version", Long.class));
+    return user;
+  }
+
+  private static long valueOrZero(Long value) {
+    return value != null ? value : 0L;
+  }
+
+  // java.util.Date columns are TIMESTAMPs in the default time zone, as Hibernate writes them
+  private static LocalDateTime toLocalDateTime(Date date) {
+    return date != null ? LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()) : null;
+  }
+
+  private static Date toDate(LocalDateTime dateTime) {
+    return dateTime != null ? Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant()) : null;
+  }
+}
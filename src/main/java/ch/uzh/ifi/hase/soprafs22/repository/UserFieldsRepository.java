@@ -0,0 +1,18 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserField;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User Fields Repository
+ * Fragment of the UserRepository for sparse field selection: reads only the
+ * requested columns of all users, without creating entities.
+ */
+public interface UserFieldsRepository {
+
+  // one map per user ordered by id, with the given fields in the given order; the id is always
+  // read and comes last unless it is one of the fields
+  List<Map<String, Object>> findAllFields(List<UserField> fields);
+}
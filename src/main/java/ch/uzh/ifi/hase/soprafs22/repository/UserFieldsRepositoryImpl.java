@@ -0,0 +1,52 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserField;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Implementation of the UserFieldsRepository fragment. The select clause is
+ * built from UserField constants only, a field name from the request never
+ * ends up in the query.
+ */
+public class UserFieldsRepositoryImpl implements UserFieldsRepository {
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public List<Map<String, Object>> findAllFields(List<UserField> fields) {
+    List<String> columns = new ArrayList<>();
+    for (UserField field : fields) {
+      if (!columns.contains(field.getFieldName())) {
+        columns.add(field.getFieldName());
+      }
+    }
+    if (!columns.contains(UserField.ID.getFieldName())) {
+      columns.add(UserField.ID.getFieldName());
+    }
+
+    StringJoiner select = new StringJoiner(", ", "select ", " from User u order by u.id");
+    for (String column : columns) {
+      select.add("u." + column + " as " + column);
+    }
+    List<Tuple> rows = entityManager.createQuery(select.toString(), Tuple.class).getResultList();
+
+    List<Map<String, Object>> users = new ArrayList<>(rows.size());
+    for (Tuple row : rows) {
+      Map<String, Object> user = new LinkedHashMap<>();
+      for (String column : columns) {
+        user.put(column, row.get(column));
+      }
+      users.add(user);
+    }
+    return users;
+  }
+}
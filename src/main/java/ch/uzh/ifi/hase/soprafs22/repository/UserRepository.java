@@ -1,12 +1,58 @@
 package ch.uzh.ifi.hase.soprafs22.repository;
 
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserFieldsRepository {
   User findByName(String name);
+
+  // the cacheable hints only take effect when the Hibernate query cache is enabled (profile l2cache)
+  @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
   User findByUsername(String username);
+  @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
   User findByid(Long id);
+
+  User findByToken(String token);
+  List<User> findAllByStatus(UserStatus status);
+
+  // newest users with the given status first, used to warm the user cache
+  List<User> findByStatusOrderByIdDesc(UserStatus status, Pageable pageable);
+
+  // set-based existence check: which of the given usernames are already taken
+  @Query("select u.username from User u where u.username in :usernames")
+  List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+  @Query("select count(u) as count, max(u.id) as maxId, sum(u.version) as versionSum from User u")
+  UserTableVersion findTableVersion();
+
+  // the user list, only the columns of UserGetDTO
+  @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.name, u.username, u.status)"
+      + " from User u order by u.id")
+  List<UserSummary> findAllSummaries();
+
+  // keyset page: all users with an id greater than the cursor, ordered by id
+  @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.name, u.username, u.status)"
+      + " from User u where u.id > :after order by u.id")
+  List<UserSummary> findSummariesAfter(@Param("after") Long after, Pageable pageable);
+
+  // forward-only cursor over the whole table, must be consumed inside a transaction
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+  @Query("select new ch.uzh.ifi.hase.soprafs22.repository.UserSummary(u.id, u.name, u.username, u.status)"
+      + " from User u order by u.id")
+  Stream<UserSummary> streamAllSummaries();
 }
@@ -0,0 +1,42 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+
+/**
+ * The columns of a user shown in the user list (UserGetDTO). Built by a
+ * constructor expression, so it is neither managed nor dirty-checked, and
+ * the password, token and dates are not read at all.
+ */
+public class UserSummary {
+  private final Long id;
+  private final String name;
+  private final String username;
+  private final UserStatus status;
+
+  public UserSummary(Long id, String name, String username, UserStatus status) {
+    this.id = id;
+    this.name = name;
+    this.username = username;
+    this.status = status;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  public UserSummary withStatus(UserStatus status) {
+    return status == this.status ? this : new UserSummary(id, name, username, status);
+  }
+}
@@ -0,0 +1,13 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+/**
+ * Aggregate over the user table that changes whenever a user is inserted,
+ * deleted or updated through JPA. Used to compute the ETag of the user list.
+ */
+public interface UserTableVersion {
+  long getCount();
+
+  Long getMaxId();
+
+  Long getVersionSum();
+}
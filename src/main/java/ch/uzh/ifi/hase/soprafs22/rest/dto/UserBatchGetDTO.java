@@ -0,0 +1,25 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+import java.util.List;
+
+public class UserBatchGetDTO {
+    // in the order of the requested ids, null where no user has the id
+    private List<FullUserGetDTO> users;
+    private List<Long> missing;
+
+    public List<FullUserGetDTO> getUsers() {
+        return users;
+    }
+
+    public void setUsers(List<FullUserGetDTO> users) {
+        this.users = users;
+    }
+
+    public List<Long> getMissing() {
+        return missing;
+    }
+
+    public void setMissing(List<Long> missing) {
+        this.missing = missing;
+    }
+}
@@ -0,0 +1,42 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs22.constant.ImportStatus;
+
+public class UserImportResultGetDTO {
+    private int row;
+    private Long id;
+    private String username;
+    private ImportStatus status;
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public ImportStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ImportStatus status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,24 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+import java.util.List;
+
+public class UserPageGetDTO {
+    private List<UserGetDTO> users;
+    private Long next;
+
+    public List<UserGetDTO> getUsers() {
+        return users;
+    }
+
+    public void setUsers(List<UserGetDTO> users) {
+        this.users = users;
+    }
+
+    public Long getNext() {
+        return next;
+    }
+
+    public void setNext(Long next) {
+        this.next = next;
+    }
+}
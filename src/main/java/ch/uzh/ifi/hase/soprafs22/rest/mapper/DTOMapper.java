@@ -1,7 +1,9 @@
 package ch.uzh.ifi.hase.soprafs22.rest.mapper;
 
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.*;
+import ch.uzh.ifi.hase.soprafs22.service.UserSession;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
@@ -32,10 +34,23 @@ public interface DTOMapper {
   @Mapping(source = "status", target = "status")
   UserGetDTO convertEntityToUserGetDTO(User user);
 
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "status", target = "status")
+  UserGetDTO convertUserSummaryToUserGetDTO(UserSummary userSummary);
+
   @Mapping(source = "username", target = "username")
   @Mapping(source = "password", target = "password")
   User convertLoginUserPostDTOtoEntity(LoginUserPostDTO loginUserPostDTO);
 
+  @Mapping(source = "user.id", target = "id")
+  @Mapping(source = "user.name", target = "name")
+  @Mapping(source = "user.username", target = "username")
+  @Mapping(source = "user.status", target = "status")
+  @Mapping(source = "token", target = "token")
+  LoginUserGetDTO convertUserSessionToLoginUserGetDTO(UserSession userSession);
+
   @Mapping(source = "id", target = "id")
   @Mapping(source = "username", target = "username")
   @Mapping(source = "status", target = "status")
@@ -0,0 +1,171 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.exceptions.LoginThrottledException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Login Rate Limiter
+ * Token buckets per username and per client address for POST /login, checked
+ * before the user is looked up or the password is compared, so a burst of
+ * guesses is turned away without reaching the database or the hasher.
+ * A bucket holds up to capacity attempts and refills at refill-per-minute.
+ * It is a single AtomicLong (the time at which the bucket is full again,
+ * generic cell rate algorithm) updated with compare-and-set, so admitting an
+ * attempt takes no lock. The buckets are spread over independent shards;
+ * buckets that have refilled completely are evicted shard by shard.
+ */
+@Component
+public class LoginRateLimiter implements MeterBinder {
+
+  private static final int SHARDS = 16;
+
+  private final Buckets usernameBuckets;
+
+  private final Buckets addressBuckets;
+
+  private final LongSupplier clock;
+
+  private final LongAdder admitted = new LongAdder();
+
+  private final LongAdder throttledByUsername = new LongAdder();
+
+  private final LongAdder throttledByAddress = new LongAdder();
+
+  @Autowired
+  public LoginRateLimiter(@Value("${app.login-limit.username.capacity:10}") int usernameCapacity,
+                          @Value("${app.login-limit.username.refill-per-minute:10}") int usernameRefillPerMinute,
+                          @Value("${app.login-limit.address.capacity:100}") int addressCapacity,
+                          @Value("${app.login-limit.address.refill-per-minute:600}") int addressRefillPerMinute) {
+    this(usernameCapacity, usernameRefillPerMinute, addressCapacity, addressRefillPerMinute, System::nanoTime);
+  }
+
+  LoginRateLimiter(int usernameCapacity, int usernameRefillPerMinute, int addressCapacity, int addressRefillPerMinute,
+                   LongSupplier clock) {
+    this.usernameBuckets = new Buckets("app.login-limit.username", usernameCapacity, usernameRefillPerMinute);
+    this.addressBuckets = new Buckets("app.login-limit.address", addressCapacity, addressRefillPerMinute);
+    this.clock = clock;
+  }
+
+  public void acquire(String username, String clientAddress) {
+      // Input: username and client address of a login attempt
+      // Throws: LoginThrottledException (TOO MANY REQUESTS) with the seconds until the next
+      // attempt is admitted, in case one of the two buckets is empty
+    long now = clock.getAsLong();
+    long waitNanos = addressBuckets.tryAcquire(String.valueOf(clientAddress), now);
+    if (waitNanos > 0) {
+      throttledByAddress.increment();
+      throw new LoginThrottledException(toRetryAfterSeconds(waitNanos));
+    }
+    waitNanos = usernameBuckets.tryAcquire(String.valueOf(username), now);
+    if (waitNanos > 0) {
+      throttledByUsername.increment();
+      throw new LoginThrottledException(toRetryAfterSeconds(waitNanos));
+    }
+    admitted.increment();
+  }
+
+  @Scheduled(fixedDelayString = "${app.login-limit.eviction-interval-ms:60000}")
+  public void evictIdle() {
+    long now = clock.getAsLong();
+    usernameBuckets.evictFull(now);
+    addressBuckets.evictFull(now);
+  }
+
+  int size() {
+    return usernameBuckets.size() + addressBuckets.size();
+  }
+
+  private static long toRetryAfterSeconds(long waitNanos) {
+    return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("users.login.limiter", admitted, LongAdder::sum)
+        .tag("result", "admitted")
+        .register(registry);
+    FunctionCounter.builder("users.login.limiter", throttledByUsername, LongAdder::sum)
+        .tag("result", "throttled")
+        .tag("key", "username")
+        .register(registry);
+    FunctionCounter.builder("users.login.limiter", throttledByAddress, LongAdder::sum)
+        .tag("result", "throttled")
+        .tag("key", "address")
+        .register(registry);
+    Gauge.builder("users.login.limiter.buckets", this, LoginRateLimiter::size)
+        .register(registry);
+  }
+
+  private static final class Buckets {
+
+    // nanoseconds per token, and how far the full time may lie ahead before an attempt is refused
+    private final long emissionInterval;
+    private final long tolerance;
+
+    private final Map<String, AtomicLong>[] shards;
+
+    @SuppressWarnings("unchecked")
+    private Buckets(String name, int capacity, int refillPerMinute) {
+      // fails the startup instead of dividing by zero or refusing every attempt
+      if (capacity < 1 || refillPerMinute < 1) {
+        throw new IllegalArgumentException(name + ".capacity and " + name + ".refill-per-minute must be at least 1");
+      }
+      this.emissionInterval = TimeUnit.MINUTES.toNanos(1) / refillPerMinute;
+      this.tolerance = emissionInterval * (capacity - 1);
+      this.shards = new Map[SHARDS];
+      for (int i = 0; i < SHARDS; i++) {
+        shards[i] = new ConcurrentHashMap<>();
+      }
+    }
+
+    private long tryAcquire(String key, long now) {
+        // Returns: 0 if the attempt is admitted, otherwise the nanoseconds until it would be
+      Map<String, AtomicLong> shard = shard(key);
+      while (true) {
+        AtomicLong fullAt = shard.computeIfAbsent(key, k -> new AtomicLong(now));
+        long current = fullAt.get();
+        long start = Math.max(current, now);
+        if (start - now > tolerance) {
+          return start - now - tolerance;
+        }
+        // a bucket evicted as full meanwhile is gone with the attempt, take it from the new one
+        if (fullAt.compareAndSet(current, start + emissionInterval) && shard.get(key) == fullAt) {
+          return 0;
+        }
+      }
+    }
+
+    private void evictFull(long now) {
+      // a bucket that is full again behaves exactly like a missing one
+      for (Map<String, AtomicLong> shard : shards) {
+        shard.values().removeIf(fullAt -> fullAt.get() - now <= 0);
+      }
+    }
+
+    private int size() {
+      int size = 0;
+      for (Map<String, AtomicLong> shard : shards) {
+        size += shard.size();
+      }
+      return size;
+    }
+
+    private Map<String, AtomicLong> shard(String key) {
+      return shards[Math.floorMod(key.hashCode() ^ (key.hashCode() >>> 16), SHARDS)];
+    }
+  }
+}
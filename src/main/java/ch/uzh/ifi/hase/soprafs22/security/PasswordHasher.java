@@ -0,0 +1,193 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Password Hasher
+ * Hashes and verifies passwords with PBKDF2 (HMAC-SHA256) on a dedicated,
+ * CPU-sized thread pool with a bounded queue. When the queue is full the task
+ * is rejected with a RejectedExecutionException instead of piling up.
+ * Bulk hashing for imports only gets a share of the pool (by default half of
+ * the threads), so a running import does not turn logins away.
+ * Encoded passwords look like pbkdf2$<iterations>$<salt>$<hash>; anything
+ * else is treated as a legacy plaintext password that needs a rehash.
+ */
+@Component
+public class PasswordHasher implements MeterBinder {
+
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+  private static final String PREFIX = "pbkdf2";
+  private static final String SEPARATOR = "$";
+  private static final int SALT_BYTES = 16;
+  private static final int KEY_BITS = 256;
+
+  private final int iterations;
+
+  private final ThreadPoolExecutor executor;
+
+  // bounds the import tasks in the pool, the remaining threads and queue slots stay free for interactive hashing
+  private final Semaphore importPermits;
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final LongAdder rejected = new LongAdder();
+
+  public PasswordHasher(int iterations, int threads, int queueCapacity) {
+    this(iterations, threads, queueCapacity, 0);
+  }
+
+  @Autowired
+  public PasswordHasher(@Value("${app.password.iterations:100000}") int iterations,
+                        @Value("${app.password.threads:0}") int threads,
+                        @Value("${app.password.queue-capacity:256}") int queueCapacity,
+                        @Value("${app.password.import-concurrency:0}") int importConcurrency) {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    AtomicInteger threadCount = new AtomicInteger();
+    this.iterations = iterations;
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.importPermits = new Semaphore(importConcurrency > 0 ? importConcurrency : Math.max(1, poolSize / 2));
+  }
+
+  public CompletableFuture<String> hash(String password) {
+    return submit(() -> encode(password));
+  }
+
+  public List<String> hashAll(List<String> passwords) {
+      // Hashes many passwords in parallel, e.g. for an import. At most import-concurrency of
+      // them are in the pool at a time and the caller waits for a permit, so an import never
+      // fills the queue that logins and sign-ups depend on. Passwords the pool cannot take are
+      // hashed on the calling thread, which throttles the caller (caller-runs).
+    List<CompletableFuture<String>> hashes = new ArrayList<>(passwords.size());
+    for (String password : passwords) {
+      importPermits.acquireUninterruptibly();
+      try {
+        hashes.add(hash(password).whenComplete((encodedPassword, failure) -> importPermits.release()));
+      } catch (RejectedExecutionException e) {
+        try {
+          hashes.add(CompletableFuture.completedFuture(encode(password)));
+        } catch (GeneralSecurityException securityException) {
+          throw new IllegalStateException(securityException);
+        } finally {
+          importPermits.release();
+        }
+      }
+    }
+    List<String> encodedPasswords = new ArrayList<>(hashes.size());
+    for (CompletableFuture<String> hash : hashes) {
+      encodedPasswords.add(hash.join());
+    }
+    return encodedPasswords;
+  }
+
+  public CompletableFuture<Boolean> matches(String password, String encodedPassword) {
+    if (password == null || encodedPassword == null) {
+      return CompletableFuture.completedFuture(false);
+    }
+    if (!isEncoded(encodedPassword)) {
+      return CompletableFuture.completedFuture(constantTimeEquals(
+          password.getBytes(StandardCharsets.UTF_8), encodedPassword.getBytes(StandardCharsets.UTF_8)));
+    }
+    return submit(() -> {
+      String[] parts = encodedPassword.split("\\$");
+      byte[] salt = Base64.getDecoder().decode(parts[2]);
+      byte[] expected = Base64.getDecoder().decode(parts[3]);
+      return constantTimeEquals(expected, pbkdf2(password, salt, Integer.parseInt(parts[1])));
+    });
+  }
+
+  public boolean needsRehash(String encodedPassword) {
+      // true for plaintext passwords and hashes made with another work factor
+    return !isEncoded(encodedPassword)
+        || !encodedPassword.startsWith(PREFIX + SEPARATOR + iterations + SEPARATOR);
+  }
+
+  private String encode(String password) throws GeneralSecurityException {
+    byte[] salt = new byte[SALT_BYTES];
+    random.nextBytes(salt);
+    byte[] hash = pbkdf2(password, salt, iterations);
+    return String.join(SEPARATOR, PREFIX, Integer.toString(iterations),
+        Base64.getEncoder().encodeToString(salt), Base64.getEncoder().encodeToString(hash));
+  }
+
+  private boolean isEncoded(String encodedPassword) {
+    return encodedPassword.startsWith(PREFIX + SEPARATOR) && encodedPassword.split("\\$").length == 4;
+  }
+
+  private <T> CompletableFuture<T> submit(PasswordTask<T> task) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          result.complete(task.run());
+        } catch (Exception e) {
+          result.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      throw e;
+    }
+    return result;
+  }
+
+  private static byte[] pbkdf2(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+    try {
+      return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  private static boolean constantTimeEquals(byte[] a, byte[] b) {
+    return MessageDigest.isEqual(a, b);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("users.password.queue", executor, e -> e.getQueue().size())
+        .register(registry);
+    FunctionCounter.builder("users.password.rejected", rejected, LongAdder::sum)
+        .register(registry);
+  }
+
+  @FunctionalInterface
+  private interface PasswordTask<T> {
+    T run() throws Exception;
+  }
+}
@@ -0,0 +1,47 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.service.SessionStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive Token Authentication Filter
+ * The TokenAuthenticationFilter for the reactive profile: resolves the bearer
+ * token to a user id and stores it as exchange attribute under the same name.
+ * Requests without token are passed on unchanged, requests with an unknown
+ * or expired token are answered with 401 UNAUTHORIZED.
+ * The SessionStore is in memory, so the lookup runs on the event loop.
+ */
+public class ReactiveTokenAuthenticationFilter implements WebFilter {
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  private final SessionStore sessionStore;
+
+  public ReactiveTokenAuthenticationFilter(SessionStore sessionStore) {
+    this.sessionStore = sessionStore;
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    String authorization = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+    if (authorization == null) {
+      return chain.filter(exchange);
+    }
+    if (!authorization.startsWith(BEARER_PREFIX)) {
+      return Mono.error(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid token"));
+    }
+
+    Long userId = sessionStore.touch(authorization.substring(BEARER_PREFIX.length()).trim());
+    if (userId == null) {
+      return Mono.error(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid token"));
+    }
+    exchange.getAttributes().put(TokenAuthenticationFilter.AUTHENTICATED_USER_ID, userId);
+    return chain.filter(exchange);
+  }
+}
@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.service.SessionStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TokenAuthenticationConfig {
+
+  @Bean
+  @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+  public FilterRegistrationBean<TokenAuthenticationFilter> tokenAuthenticationFilter(SessionStore sessionStore) {
+    FilterRegistrationBean<TokenAuthenticationFilter> registration =
+        new FilterRegistrationBean<>(new TokenAuthenticationFilter(sessionStore));
+    registration.addUrlPatterns("/*");
+    return registration;
+  }
+
+  @Bean
+  @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+  public ReactiveTokenAuthenticationFilter reactiveTokenAuthenticationFilter(SessionStore sessionStore) {
+    return new ReactiveTokenAuthenticationFilter(sessionStore);
+  }
+}
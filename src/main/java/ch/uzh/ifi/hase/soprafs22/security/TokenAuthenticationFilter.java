@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.service.SessionStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Token Authentication Filter
+ * Resolves the bearer token of a request to a user id with the SessionStore
+ * and stores it as request attribute, so handlers know the caller without
+ * querying the database. Every resolved request extends the session.
+ * Requests without token are passed on unchanged, requests with an unknown
+ * or expired token are answered with 401 UNAUTHORIZED.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+  public static final String AUTHENTICATED_USER_ID = "authenticatedUserId";
+
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  private final SessionStore sessionStore;
+
+  public TokenAuthenticationFilter(SessionStore sessionStore) {
+    this.sessionStore = sessionStore;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+    if (authorization == null) {
+      filterChain.doFilter(request, response);
+      return;
+    }
+
+    Long userId = null;
+    if (authorization.startsWith(BEARER_PREFIX)) {
+      userId = sessionStore.touch(authorization.substring(BEARER_PREFIX.length()).trim());
+    }
+    if (userId == null) {
+      response.sendError(HttpStatus.UNAUTHORIZED.value(), "Invalid token");
+      return;
+    }
+
+    request.setAttribute(AUTHENTICATED_USER_ID, userId);
+    filterChain.doFilter(request, response);
+  }
+}
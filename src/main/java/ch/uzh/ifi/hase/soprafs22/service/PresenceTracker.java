@@ -0,0 +1,134 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Presence Tracker
+ * Holds the ONLINE/OFFLINE status of every user whose status changed since
+ * startup and writes those changes back to the database in periodic JDBC
+ * batches (write-behind), instead of one UPDATE per login or logout.
+ * The status column of User is not updatable through JPA, so the tracker is
+ * the only writer of status changes. Pending changes are flushed on shutdown.
+ */
+@Component
+public class PresenceTracker implements MeterBinder {
+
+  static final String UPDATE_STATUS_SQL = "UPDATE \"USER\" SET status = ? WHERE id = ?";
+
+  private final Logger log = LoggerFactory.getLogger(PresenceTracker.class);
+
+  private final JdbcTemplate jdbcTemplate;
+
+  // ConcurrentHashMap: lock-free reads, striped writes
+  private final Map<Long, UserStatus> statuses = new ConcurrentHashMap<>();
+
+  private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder flushedRows = new LongAdder();
+
+  // counts status changes since startup, tells clients whether any status may have changed
+  private final long epoch = System.currentTimeMillis();
+
+  private final AtomicLong revision = new AtomicLong();
+
+  public PresenceTracker(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  public void register(Long userId, UserStatus status) {
+      // Records the status of a user that has just been inserted, nothing to flush
+    statuses.put(userId, status);
+  }
+
+  public boolean setStatus(Long userId, UserStatus status) {
+      // Returns: true if the status of the user has changed
+    if (statuses.put(userId, status) != status) {
+      dirty.add(userId);
+      revision.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  public UserStatus statusOf(Long userId, UserStatus persistedStatus) {
+      // Returns: the tracked status, or the persisted one if the user was not touched since startup
+    UserStatus status = statuses.get(userId);
+    return status != null ? status : persistedStatus;
+  }
+
+  public String revision() {
+    return Long.toString(epoch, Character.MAX_RADIX) + "." + revision.get();
+  }
+
+  public void applyTo(User user) {
+    user.setStatus(statusOf(user.getId(), user.getStatus()));
+  }
+
+  public UserSummary applyTo(UserSummary user) {
+    return user.withStatus(statusOf(user.getId(), user.getStatus()));
+  }
+
+  @Scheduled(fixedDelayString = "${app.presence.flush-interval-ms:500}")
+  public synchronized void flush() {
+    if (dirty.isEmpty()) {
+      return;
+    }
+
+    // remove before reading the status: a concurrent change re-marks the user for the next flush
+    List<Long> userIds = new ArrayList<>();
+    List<Object[]> batch = new ArrayList<>();
+    for (Iterator<Long> iterator = dirty.iterator(); iterator.hasNext(); ) {
+      Long userId = iterator.next();
+      iterator.remove();
+      userIds.add(userId);
+      batch.add(new Object[] { statuses.get(userId).ordinal(), userId });
+    }
+
+    try {
+      jdbcTemplate.batchUpdate(UPDATE_STATUS_SQL, batch);
+      flushedRows.add(batch.size());
+    } catch (DataAccessException e) {
+      log.error("Flushing {} status changes failed, retrying with the next flush", batch.size(), e);
+      dirty.addAll(userIds);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flush();
+  }
+
+  public int pending() {
+    return dirty.size();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("users.presence.flushed", flushedRows, LongAdder::sum)
+        .register(registry);
+    Gauge.builder("users.presence.pending", dirty, Set::size)
+        .register(registry);
+  }
+}
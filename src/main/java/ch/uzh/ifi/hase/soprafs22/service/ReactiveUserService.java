@@ -0,0 +1,248 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.cache.UserCache;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.events.UserChangeEvent;
+import ch.uzh.ifi.hase.soprafs22.repository.ReactiveUserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.security.PasswordHasher;
+import io.r2dbc.spi.R2dbcException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Reactive User Service
+ * Counterpart of the UserService for the reactive profile, covering
+ * registration, login, profile and logout. The database is reached through
+ * the ReactiveUserRepository, password hashing runs on the PasswordHasher
+ * pool, and the in-memory components (cache, sessions, presence, username
+ * filter, search index) are shared with the servlet stack, so no call blocks
+ * the event loop.
+ * Errors are signalled as ResponseStatusException with the same status and
+ * message as in the UserService.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserService {
+
+  private static final String UNIQUE_VIOLATION = "23505";
+
+  private final ReactiveUserRepository userRepository;
+  private final SessionStore sessionStore;
+  private final PresenceTracker presenceTracker;
+  private final UserCache userCache;
+  private final PasswordHasher passwordHasher;
+  private final ApplicationEventPublisher eventPublisher;
+  private final UsernameFilter usernameFilter;
+  private final UserSearchIndex userSearchIndex;
+
+  public ReactiveUserService(ReactiveUserRepository userRepository, SessionStore sessionStore,
+                             PresenceTracker presenceTracker, UserCache userCache, PasswordHasher passwordHasher,
+                             ApplicationEventPublisher eventPublisher, UsernameFilter usernameFilter,
+                             UserSearchIndex userSearchIndex) {
+    this.userRepository = userRepository;
+    this.sessionStore = sessionStore;
+    this.presenceTracker = presenceTracker;
+    this.userCache = userCache;
+    this.passwordHasher = passwordHasher;
+    this.eventPublisher = eventPublisher;
+    this.usernameFilter = usernameFilter;
+    this.userSearchIndex = userSearchIndex;
+  }
+
+  public Flux<UserSummary> getUsers() {
+    return userRepository.findAllSummaries().map(presenceTracker::applyTo);
+  }
+
+  public Mono<String> getUsersETag() {
+      // Returns: the same strong ETag of the user list as UserService.getUsersETag
+    return userRepository.findTableVersion()
+        .map(tableVersion -> "\"" + tableVersion + "-" + presenceTracker.revision() + "\"");
+  }
+
+  public Flux<UserSummary> getUsersAfter(Long after, int limit) {
+      // Input: id cursor (exclusive) and page size
+      // Returns: at most limit users with an id greater than the cursor, ordered by id
+      // Throws: BAD REQUEST exception in case the page size is out of range
+    if (limit < 1 || limit > UserService.MAX_PAGE_SIZE) {
+      return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          String.format("limit must be between 1 and %s", UserService.MAX_PAGE_SIZE)));
+    }
+    return userRepository.findSummariesAfter(after, limit).map(presenceTracker::applyTo);
+  }
+
+  public Mono<User> createUser(User newUser) {
+      // creates User. Also checks if user exists.
+      // Throws: CONFLICT exception for a taken username, BAD REQUEST for incomplete input
+    newUser.setCreation_date(new Date());
+    newUser.setToken(UUID.randomUUID().toString());
+    newUser.setStatus(UserStatus.ONLINE);
+    String rawPassword = newUser.getPassword();
+
+    return checkIfUserExists(newUser)
+        .then(passwordTask(() -> passwordHasher.hash(rawPassword)))
+        .flatMap(encodedPassword -> {
+          newUser.setPassword(encodedPassword);
+          return userRepository.insert(newUser);
+        })
+        .onErrorMap(DataIntegrityViolationException.class, ReactiveUserService::toResponseStatus)
+        .doOnNext(createdUser -> {
+          usernameFilter.put(createdUser.getUsername());
+          userSearchIndex.put(createdUser);
+          userCache.evict(createdUser);
+          // the account token is no bearer token, the user logs in for a session
+          sessionStore.keepOnline(createdUser.getId());
+          presenceTracker.register(createdUser.getId(), UserStatus.ONLINE);
+          eventPublisher.publishEvent(UserChangeEvent.created(createdUser));
+        });
+  }
+
+  private Mono<Void> checkIfUserExists(User userToBeCreated) {
+      // This is a helper method. It checks uniqueness of username.
+      // Usernames the filter knows to be free skip the query and go straight to the insert.
+    if (!usernameFilter.mightContain(userToBeCreated.getUsername())) {
+      return Mono.empty();
+    }
+    String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
+    return userRepository.findByUsername(userToBeCreated.getUsername())
+        .flatMap(userByUsername -> Mono.error(
+            new ResponseStatusException(HttpStatus.CONFLICT, String.format(baseErrorMessage, "username", "is"))))
+        .then();
+  }
+
+  public Mono<UserSession> loginCredentials(User user) {
+      // This method check if username and password provided by user is correct.
+      // Signals an error in case of discrepancies, otherwise opens a new session and returns it
+      // with the user information.
+    String username = user.getUsername();
+    String password = user.getPassword();
+    User cachedUser = userCache.getByUsername(username);
+    Mono<User> storedUser = cachedUser != null ? Mono.just(cachedUser) : userRepository.findByUsername(username);
+
+    return storedUser
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+            String.format("%s username not found. Please register!", username))))
+        .flatMap(userByUsername -> passwordTask(() -> passwordHasher.matches(password, userByUsername.getPassword()))
+            .flatMap(matches -> matches ? Mono.just(userByUsername)
+                : Mono.error(new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "Password incorrect! Try again!"))))
+        .flatMap(userByUsername -> {
+          // transparently upgrade plaintext passwords and hashes made with an old work factor
+          if (!passwordHasher.needsRehash(userByUsername.getPassword())) {
+            return Mono.just(userByUsername);
+          }
+          return passwordTask(() -> passwordHasher.hash(password)).flatMap(encodedPassword -> {
+            userByUsername.setPassword(encodedPassword);
+            return userRepository.updatePassword(userByUsername);
+          });
+        })
+        .map(userByUsername -> {
+          // the session is open before the status changes, so its expiry cannot undo the ONLINE
+          String token = sessionStore.open(userByUsername.getId());
+          userByUsername.setStatus(UserStatus.ONLINE);
+          if (presenceTracker.setStatus(userByUsername.getId(), UserStatus.ONLINE)) {
+            eventPublisher.publishEvent(UserChangeEvent.statusChanged(userByUsername.getId(), UserStatus.ONLINE));
+          }
+          userCache.evict(userByUsername);
+          return new UserSession(userByUsername, token);
+        });
+  }
+
+  private <T> Mono<T> passwordTask(Supplier<CompletableFuture<T>> task) {
+      // Helper method: runs a task on the password hasher, the result is signalled on its pool.
+      // Signals: SERVICE UNAVAILABLE exception in case the hasher is saturated
+    return Mono.defer(() -> Mono.fromFuture(task.get()))
+        .onErrorMap(RejectedExecutionException.class, e -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+            "Too many concurrent password checks, try again later"));
+  }
+
+  public Mono<User> getUserbyUserID(Long id) {
+      // Input: id
+      // Returns: User information of given user id
+      // Signals: NOT FOUND exception in case given user id not found
+    User cachedUser = userCache.getById(id);
+    Mono<User> user = cachedUser != null ? Mono.just(cachedUser) : userRepository.findById(id).doOnNext(userCache::put);
+    return user
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+            String.format("User with user id %s not found!", id))))
+        .doOnNext(presenceTracker::applyTo);
+  }
+
+  public Mono<User> editUserbyUserID(User user) {
+      // Input: user information to be edited
+      // Return: Edited user information
+      // Signals: NOT FOUND and CONFLICT exceptions, CONFLICT also for a concurrent edit
+    Long userid = user.getId();
+    String username = user.getUsername();
+    Date birthday = user.getBirthday();
+
+    return findExisting(userid)
+        .flatMap(userbyID -> {
+          if (userbyID.getUsername().equals(username)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "Username already exist"));
+          }
+          if (username != null) {
+            userbyID.setUsername(username);
+          }
+          if (birthday != null) {
+            userbyID.setBirthday(birthday);
+          }
+          return userRepository.updateProfile(userbyID)
+              .flatMap(updated -> updated ? Mono.just(userbyID)
+                  : Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "User has been changed concurrently")));
+        })
+        .onErrorMap(DataIntegrityViolationException.class, ReactiveUserService::toResponseStatus)
+        .doOnNext(userbyID -> {
+          // evicted once the update is written, a read in between would cache the old row again
+          userCache.evict(userbyID);
+          usernameFilter.put(userbyID.getUsername());
+          userSearchIndex.put(userbyID);
+          eventPublisher.publishEvent(UserChangeEvent.profileChanged(userbyID));
+        });
+  }
+
+  public Mono<User> logoutUserbyUserID(Long userid) {
+      // Input: user id
+      // Function: Close all sessions of the user and change online status to offline
+      // Return: Edited user information
+    return findExisting(userid)
+        .doOnNext(userbyID -> {
+          sessionStore.closeAll(userbyID.getId());
+          userbyID.setStatus(UserStatus.OFFLINE);
+          if (presenceTracker.setStatus(userbyID.getId(), UserStatus.OFFLINE)) {
+            eventPublisher.publishEvent(UserChangeEvent.statusChanged(userbyID.getId(), UserStatus.OFFLINE));
+          }
+          userCache.evict(userbyID);
+        });
+  }
+
+  private Mono<User> findExisting(Long userid) {
+    return userRepository.findById(userid)
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+            String.format("User with user id %s not found!", userid))));
+  }
+
+  private static ResponseStatusException toResponseStatus(DataIntegrityViolationException ex) {
+      // same mapping as GlobalExceptionAdvice: a unique violation is a taken username
+    for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+      if (cause instanceof R2dbcException && UNIQUE_VIOLATION.equals(((R2dbcException) cause).getSqlState())) {
+        return new ResponseStatusException(HttpStatus.CONFLICT,
+            "The username provided is not unique. Therefore, the user could not be saved!", ex);
+      }
+    }
+    return new ResponseStatusException(HttpStatus.BAD_REQUEST,
+        "The user provided is incomplete. Therefore, the user could not be saved!", ex);
+  }
+}
@@ -0,0 +1,297 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.events.UserChangeEvent;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Session Store
+ * In-memory sessions from token to user id. Every login opens a session with
+ * a token of its own; a session expires once it has not been used for the
+ * ttl (sliding expiry), and a user whose last session expires is set OFFLINE
+ * through the PresenceTracker, which writes the changes in batches.
+ * Expiry runs on a hashed timing wheel with one slot per tick: a session sits
+ * in the slot of its expiry time, and the sweeper only visits the slots of the
+ * ticks that have passed. A session that was used meanwhile is moved to the
+ * slot of its new expiry time, so housekeeping costs O(sessions due) and never
+ * scans all sessions or the user table.
+ * Sessions live in memory only: after a restart their tokens are unknown and
+ * clients log in again. A user persisted ONLINE at startup and a user who has
+ * just registered get a session without a token, which cannot be used but
+ * still sets the user OFFLINE once the ttl passes without a login. With several instances a token is only known to
+ * the instance that issued it.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class SessionStore implements ApplicationRunner, MeterBinder {
+
+  private final Logger log = LoggerFactory.getLogger(SessionStore.class);
+
+  private final UserRepository userRepository;
+
+  private final PresenceTracker presenceTracker;
+
+  private final ApplicationEventPublisher eventPublisher;
+
+  private final long ttlNanos;
+
+  private final long tickNanos;
+
+  private final int maxPerUser;
+
+  private final LongSupplier clock;
+
+  private final long origin;
+
+  private final Map<String, Session> sessionsByToken = new ConcurrentHashMap<>();
+
+  // oldest session first, only modified inside compute of the user id
+  private final Map<Long, Deque<Session>> sessionsByUser = new ConcurrentHashMap<>();
+
+  private final Queue<Session>[] wheel;
+
+  // last tick whose slot has been swept, guarded by the sweep
+  private long sweptTick;
+
+  private final LongAdder opened = new LongAdder();
+
+  private final LongAdder expired = new LongAdder();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  @Autowired
+  public SessionStore(@Qualifier("userRepository") UserRepository userRepository, PresenceTracker presenceTracker,
+                      ApplicationEventPublisher eventPublisher,
+                      @Value("${app.session.ttl-minutes:30}") long ttlMinutes,
+                      @Value("${app.session.tick-ms:1000}") long tickMillis,
+                      @Value("${app.session.max-per-user:10}") int maxPerUser) {
+    this(userRepository, presenceTracker, eventPublisher, TimeUnit.MINUTES.toNanos(ttlMinutes),
+        TimeUnit.MILLISECONDS.toNanos(tickMillis), maxPerUser, System::nanoTime);
+  }
+
+  @SuppressWarnings("unchecked")
+  SessionStore(UserRepository userRepository, PresenceTracker presenceTracker, ApplicationEventPublisher eventPublisher,
+               long ttlNanos, long tickNanos, int maxPerUser, LongSupplier clock) {
+    this.userRepository = userRepository;
+    this.presenceTracker = presenceTracker;
+    this.eventPublisher = eventPublisher;
+    this.ttlNanos = ttlNanos;
+    this.tickNanos = tickNanos;
+    this.maxPerUser = maxPerUser;
+    this.clock = clock;
+    this.origin = clock.getAsLong();
+    // one revolution covers the ttl, so a (re)scheduled session never lands in the slot being swept
+    this.wheel = new Queue[(int) (ttlNanos / tickNanos) + 2];
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new ConcurrentLinkedQueue<>();
+    }
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    List<User> onlineUsers = userRepository.findAllByStatus(UserStatus.ONLINE);
+    for (User user : onlineUsers) {
+      keepOnline(user.getId());
+    }
+    log.info("Session store expires {} users persisted ONLINE unless they log in again", onlineUsers.size());
+  }
+
+  public String open(Long userId) {
+      // Input: id of a user that has just logged in
+      // Returns: the token of a new session
+    String token = UUID.randomUUID().toString();
+    open(userId, token);
+    return token;
+  }
+
+  private void open(Long userId, String token) {
+      // Opens a session with a given token, the oldest session of the user is closed
+      // once the user has more than max-per-user sessions
+    Session session = new Session(token, userId, clock.getAsLong() + ttlNanos);
+    sessionsByToken.put(token, session);
+    add(session);
+    opened.increment();
+  }
+
+  public void keepOnline(Long userId) {
+      // Input: id of a user that is ONLINE without having logged in
+      // Opens a session without a token: no request can use it, it only sets the user OFFLINE
+      // once the ttl passes without a login
+    add(new Session(null, userId, clock.getAsLong() + ttlNanos));
+  }
+
+  private void add(Session session) {
+    sessionsByUser.compute(session.userId, (id, sessions) -> {
+      if (sessions == null) {
+        sessions = new ArrayDeque<>();
+      }
+      sessions.addLast(session);
+      if (sessions.size() > maxPerUser) {
+        close(sessions.pollFirst());
+      }
+      return sessions;
+    });
+    schedule(session, session.expiresAt);
+  }
+
+  public Long touch(String token) {
+      // Returns: id of the user owning the session, null if there is none or it has expired.
+      // Extends the session by the ttl.
+    Session session = sessionsByToken.get(token);
+    long now = clock.getAsLong();
+    if (session == null || session.closed || session.expiresAt - now <= 0) {
+      misses.increment();
+      return null;
+    }
+    session.expiresAt = now + ttlNanos;
+    hits.increment();
+    return session.userId;
+  }
+
+  public void closeAll(Long userId) {
+      // Closes every session of the user; the slots of the wheel drop them when they come due
+    Deque<Session> sessions = sessionsByUser.remove(userId);
+    if (sessions != null) {
+      sessions.forEach(this::close);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${app.session.tick-ms:1000}")
+  public synchronized void sweep() {
+    long now = clock.getAsLong();
+    long currentTick = tickOf(now);
+    // after a long pause every slot is due, each one is swept once
+    long fromTick = Math.max(sweptTick + 1, currentTick - wheel.length + 1);
+    List<Long> offlineUserIds = new ArrayList<>();
+    for (long tick = fromTick; tick <= currentTick; tick++) {
+      Queue<Session> slot = wheel[(int) Math.floorMod(tick, (long) wheel.length)];
+      for (int due = slot.size(); due > 0; due--) {
+        Session session = slot.poll();
+        if (session == null) {
+          break;
+        }
+        if (session.closed) {
+          continue;
+        }
+        long expiresAt = session.expiresAt;
+        if (expiresAt - now > 0) {
+          // used since it was scheduled, wait for the new expiry time
+          schedule(session, expiresAt);
+        } else if (expire(session)) {
+          offlineUserIds.add(session.userId);
+        }
+      }
+    }
+    sweptTick = Math.max(sweptTick, currentTick);
+
+    for (Long userId : offlineUserIds) {
+      eventPublisher.publishEvent(UserChangeEvent.statusChanged(userId, UserStatus.OFFLINE));
+    }
+  }
+
+  private boolean expire(Session session) {
+      // Returns: true if it was the last session of the user and the user went OFFLINE
+    close(session);
+    expired.increment();
+    boolean[] offline = new boolean[1];
+    sessionsByUser.computeIfPresent(session.userId, (userId, sessions) -> {
+      sessions.remove(session);
+      if (!sessions.isEmpty()) {
+        return sessions;
+      }
+      // inside compute: a concurrent login either still sees this session or comes after the change
+      offline[0] = presenceTracker.setStatus(userId, UserStatus.OFFLINE);
+      return null;
+    });
+    return offline[0];
+  }
+
+  private void close(Session session) {
+    session.closed = true;
+    // the sessions of users persisted ONLINE have no token
+    if (session.token != null) {
+      sessionsByToken.remove(session.token, session);
+    }
+  }
+
+  private void schedule(Session session, long expiresAt) {
+    // the slot of the first tick at or after the expiry time
+    wheel[(int) Math.floorMod(tickOf(expiresAt) + 1, (long) wheel.length)].add(session);
+  }
+
+  private long tickOf(long time) {
+    return Math.floorDiv(time - origin, tickNanos);
+  }
+
+  public int size() {
+    return sessionsByToken.size();
+  }
+
+  public long getExpired() {
+    return expired.sum();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("users.sessions.lookups", hits, LongAdder::sum)
+        .tag("result", "hit")
+        .register(registry);
+    FunctionCounter.builder("users.sessions.lookups", misses, LongAdder::sum)
+        .tag("result", "miss")
+        .register(registry);
+    FunctionCounter.builder("users.sessions.opened", opened, LongAdder::sum)
+        .register(registry);
+    FunctionCounter.builder("users.sessions.expired", expired, LongAdder::sum)
+        .register(registry);
+    Gauge.builder("users.sessions.active", sessionsByToken, Map::size)
+        .register(registry);
+  }
+
+  private static final class Session {
+
+    private final String token;
+    private final Long userId;
+
+    // written on every use, read by the sweeper
+    private volatile long expiresAt;
+    private volatile boolean closed;
+
+    private Session(String token, Long userId, long expiresAt) {
+      this.token = token;
+      this.userId = userId;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
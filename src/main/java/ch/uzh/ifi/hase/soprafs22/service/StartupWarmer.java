@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.cache.UserCache;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Startup Warmer
+ * Pre-warm phase at boot, enabled with app.warmup.enabled (persistent
+ * profile). It runs after the session store, the username filter and the search
+ * index have been loaded (those runners are ordered HIGHEST_PRECEDENCE, this
+ * one LOWEST_PRECEDENCE), puts the most recent ONLINE users into the user
+ * cache and runs the login and profile queries once, so their plans and the
+ * database pages they touch are cached before the first request.
+ * The application only reports readiness after all ApplicationRunners have
+ * finished; this class is also part of the readiness health group and stays
+ * DOWN until the warm-up is done.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class StartupWarmer implements ApplicationRunner, HealthIndicator {
+
+  private final Logger log = LoggerFactory.getLogger(StartupWarmer.class);
+
+  private final UserRepository userRepository;
+
+  private final UserCache userCache;
+
+  private final boolean enabled;
+
+  private final int maxUsers;
+
+  private volatile boolean warm;
+
+  public StartupWarmer(@Qualifier("userRepository") UserRepository userRepository, UserCache userCache,
+                       @Value("${app.warmup.enabled:false}") boolean enabled,
+                       @Value("${app.warmup.max-users:10000}") int maxUsers) {
+    this.userRepository = userRepository;
+    this.userCache = userCache;
+    this.enabled = enabled;
+    this.maxUsers = maxUsers;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (enabled) {
+      long start = System.nanoTime();
+      List<User> hotUsers = userRepository.findByStatusOrderByIdDesc(UserStatus.ONLINE, PageRequest.of(0, maxUsers));
+      hotUsers.forEach(userCache::put);
+      if (!hotUsers.isEmpty()) {
+        User user = hotUsers.get(0);
+        userRepository.findByUsername(user.getUsername());
+        userRepository.findByid(user.getId());
+      }
+      log.info("Warm-up loaded {} users into the cache in {} ms", hotUsers.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+    warm = true;
+  }
+
+  @Override
+  public Health health() {
+    return warm ? Health.up().build() : Health.outOfService().withDetail("reason", "warming up").build();
+  }
+}
@@ -0,0 +1,58 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.function.Consumer;
+
+/**
+ * User Export Service
+ * Reads the whole user table through a forward-only JDBC cursor with a fixed
+ * fetch size and hands every row to the caller as soon as it is read. No
+ * entities are managed, so memory use does not depend on the table size.
+ * The export runs in a read-only READ COMMITTED transaction, which does not
+ * lock rows in H2 (MVCC) or PostgreSQL.
+ */
+@Service
+public class UserExportService {
+
+  static final String EXPORT_SQL =
+      "SELECT id, username, status, creation_date, birthday FROM \"USER\" ORDER BY id";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final PresenceTracker presenceTracker;
+
+  public UserExportService(DataSource dataSource, PresenceTracker presenceTracker,
+                           @Value("${app.export.fetch-size:1000}") int fetchSize) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.jdbcTemplate.setFetchSize(fetchSize);
+    this.presenceTracker = presenceTracker;
+  }
+
+  @Transactional(readOnly = true, isolation = Isolation.READ_COMMITTED)
+  public void exportUsers(Consumer<User> consumer) {
+    UserStatus[] statuses = UserStatus.values();
+    jdbcTemplate.query(EXPORT_SQL, (RowCallbackHandler) resultSet -> {
+      User user = new User();
+      user.setId(resultSet.getLong("id"));
+      user.setUsername(resultSet.getString("username"));
+      user.setStatus(presenceTracker.statusOf(user.getId(), statuses[resultSet.getInt("status")]));
+      user.setCreation_date(toDate(resultSet.getTimestamp("creation_date")));
+      user.setBirthday(toDate(resultSet.getTimestamp("birthday")));
+      consumer.accept(user);
+    });
+  }
+
+  private static java.util.Date toDate(Timestamp timestamp) {
+    return timestamp == null ? null : new java.util.Date(timestamp.getTime());
+  }
+}
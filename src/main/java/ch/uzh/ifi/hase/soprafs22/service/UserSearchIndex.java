@@ -0,0 +1,160 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.utils.PrefixIndex;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User Search Index
+ * In-memory prefix index over the username and the name of every user, for
+ * typeahead search. It is loaded once at startup and kept up to date by the
+ * UserService on create, import and edit, so a search never reaches the
+ * database. Matching is case-insensitive. Results are ranked exact matches
+ * first, then by the matching key in alphabetical order, which puts shorter
+ * completions of the same stem first.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class UserSearchIndex implements ApplicationRunner, MeterBinder {
+
+  static final String DOCUMENTS_SQL = "SELECT id, name, username, status FROM \"USER\"";
+
+  private final Logger log = LoggerFactory.getLogger(UserSearchIndex.class);
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final PresenceTracker presenceTracker;
+
+  private final PrefixIndex index;
+
+  // what a search result shows of a user, without a database round-trip
+  private final Map<Long, Document> documents = new ConcurrentHashMap<>();
+
+  public UserSearchIndex(JdbcTemplate jdbcTemplate, PresenceTracker presenceTracker,
+                         @Value("${app.search.compaction-threshold:1024}") int compactionThreshold) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.presenceTracker = presenceTracker;
+    this.index = new PrefixIndex(compactionThreshold);
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    UserStatus[] statuses = UserStatus.values();
+    List<Document> loaded = new ArrayList<>();
+    jdbcTemplate.query(DOCUMENTS_SQL, resultSet -> {
+      loaded.add(new Document(resultSet.getLong("id"), resultSet.getString("name"),
+          resultSet.getString("username"), statuses[resultSet.getInt("status")]));
+    });
+    // requests are served during the load: a user put meanwhile has been put after its commit
+    // and is at least as new as its row, so the row is skipped
+    List<String> keys = new ArrayList<>();
+    List<Long> ids = new ArrayList<>();
+    synchronized (this) {
+      for (Document document : loaded) {
+        if (documents.putIfAbsent(document.id, document) != null) {
+          continue;
+        }
+        for (String key : document.keys()) {
+          keys.add(key);
+          ids.add(document.id);
+        }
+      }
+      index.addAll(keys, ids);
+    }
+    log.info("User search index loaded with {} users", documents.size());
+  }
+
+  public synchronized void put(User user) {
+      // Adds a new user or replaces the keys of an edited one
+    Document document = new Document(user.getId(), user.getName(), user.getUsername(), user.getStatus());
+    Document previous = documents.put(document.id, document);
+    if (previous != null) {
+      for (String key : previous.keys()) {
+        index.remove(key, previous.id);
+      }
+    }
+    for (String key : document.keys()) {
+      index.add(key, document.id);
+    }
+  }
+
+  public List<User> search(String query, int limit) {
+      // Returns: at most limit users whose username or name starts with the query
+    List<User> users = new ArrayList<>(limit);
+    for (Long id : index.search(normalize(query), limit)) {
+      Document document = documents.get(id);
+      if (document != null) {
+        users.add(document.toUser(presenceTracker));
+      }
+    }
+    return users;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    index.shutdown();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("users.search.index.entries", index, PrefixIndex::size)
+        .register(registry);
+  }
+
+  static String normalize(String key) {
+    return key.toLowerCase(Locale.ROOT);
+  }
+
+  private static final class Document {
+    private final long id;
+    private final String name;
+    private final String username;
+    private final UserStatus status;
+
+    private Document(long id, String name, String username, UserStatus status) {
+      this.id = id;
+      this.name = name;
+      this.username = username;
+      this.status = status;
+    }
+
+    private List<String> keys() {
+      List<String> keys = new ArrayList<>(2);
+      if (username != null) {
+        keys.add(normalize(username));
+      }
+      if (name != null && (username == null || !normalize(name).equals(normalize(username)))) {
+        keys.add(normalize(name));
+      }
+      return keys;
+    }
+
+    private User toUser(PresenceTracker presenceTracker) {
+      User user = new User();
+      user.setId(id);
+      user.setName(name);
+      user.setUsername(username);
+      user.setStatus(presenceTracker.statusOf(id, status));
+      return user;
+    }
+  }
+}
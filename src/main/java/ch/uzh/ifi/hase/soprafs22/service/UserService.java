@@ -1,20 +1,48 @@
 package ch.uzh.ifi.hase.soprafs22.service;
 
+import ch.uzh.ifi.hase.soprafs22.cache.UserCache;
+import ch.uzh.ifi.hase.soprafs22.config.ReadWriteRoutingDataSource;
+import ch.uzh.ifi.hase.soprafs22.constant.ImportStatus;
+import ch.uzh.ifi.hase.soprafs22.constant.UserField;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.events.UserChangeEvent;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.repository.UserTableVersion;
+import ch.uzh.ifi.hase.soprafs22.security.PasswordHasher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Date;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * User Service
@@ -28,19 +56,152 @@ public class UserService {
 
   private final Logger log = LoggerFactory.getLogger(UserService.class);
 
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  public static final int MAX_SEARCH_LIMIT = 50;
+
+  public static final int MAX_BATCH_SIZE = 100;
+
   private final UserRepository userRepository;
 
+  private final SessionStore sessionStore;
+
+  private final PresenceTracker presenceTracker;
+
+  private final UserCache userCache;
+
+  private final PasswordHasher passwordHasher;
+
+  private final ApplicationEventPublisher eventPublisher;
+
+  private final UsernameFilter usernameFilter;
+
+  private final UserSearchIndex userSearchIndex;
+
+  // continues registrations and logins once the password hasher is done, so the database work
+  // neither runs on the hasher threads nor holds the request thread
+  private final Executor completionExecutor;
+
   @Autowired
-  public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+  public UserService(@Qualifier("userRepository") UserRepository userRepository, SessionStore sessionStore,
+                     PresenceTracker presenceTracker, UserCache userCache, PasswordHasher passwordHasher,
+                     ApplicationEventPublisher eventPublisher,
+                     UsernameFilter usernameFilter, UserSearchIndex userSearchIndex,
+                     @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor completionExecutor) {
     this.userRepository = userRepository;
+    this.sessionStore = sessionStore;
+    this.presenceTracker = presenceTracker;
+    this.userCache = userCache;
+    this.passwordHasher = passwordHasher;
+    this.eventPublisher = eventPublisher;
+    this.usernameFilter = usernameFilter;
+    this.userSearchIndex = userSearchIndex;
+    this.completionExecutor = completionExecutor;
+  }
+
+  @Transactional(readOnly = true)
+  public List<UserSummary> getUsers() {
+    List<UserSummary> users = this.userRepository.findAllSummaries();
+    users.replaceAll(presenceTracker::applyTo);
+    return users;
+  }
+
+  @Transactional(readOnly = true)
+  public List<Map<String, Object>> getUsers(List<String> fields) {
+      // Input: fields of the user list to return, see UserField.USER_LIST_FIELDS
+      // Returns: all users with only these fields in the requested order; only their columns are
+      // read, no entity is created
+      // Throws: BAD REQUEST exception in case of an unknown field
+      List<UserField> selectedFields = checkFields(fields, UserField.USER_LIST_FIELDS);
+      List<Map<String, Object>> users = userRepository.findAllFields(selectedFields);
+      for (Map<String, Object> user : users) {
+          // the id always comes with the row, the presence of the user needs it
+          Long id = (Long) (selectedFields.contains(UserField.ID) ? user.get("id") : user.remove("id"));
+          if (user.containsKey("status")) {
+              user.put("status", presenceTracker.statusOf(id, (UserStatus) user.get("status")));
+          }
+      }
+      return users;
+  }
+
+  public static List<UserField> checkFields(List<String> fields, List<UserField> selectableFields) {
+      // Input: requested field names, e.g. of ?fields=id,status
+      // Returns: the distinct fields in the requested order
+      // Throws: BAD REQUEST exception in case no field or a field that cannot be selected is requested
+      Set<UserField> distinctFields = new LinkedHashSet<>();
+      for (String field : fields) {
+          String trimmedField = field.trim();
+          UserField selectableField = selectableFields.stream()
+                  .filter(selectable -> selectable.getFieldName().equals(trimmedField))
+                  .findFirst()
+                  .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                          String.format("fields must be some of %s", selectableFields.stream()
+                                  .map(UserField::getFieldName).collect(Collectors.joining(",")))));
+          distinctFields.add(selectableField);
+      }
+      if (distinctFields.isEmpty()) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fields must not be empty");
+      }
+      return new ArrayList<>(distinctFields);
+  }
+
+  @Transactional(readOnly = true)
+  public String getUsersETag() {
+      // Returns: strong ETag of the user list, built from an aggregate over the table
+      // (row count, highest id, sum of versions) and the presence revision for status changes
+      UserTableVersion tableVersion = userRepository.findTableVersion();
+      return String.format("\"%d-%d-%d-%s\"", tableVersion.getCount(),
+              tableVersion.getMaxId() != null ? tableVersion.getMaxId() : 0L,
+              tableVersion.getVersionSum() != null ? tableVersion.getVersionSum() : 0L,
+              presenceTracker.revision());
+  }
+
+  @Transactional(readOnly = true)
+  public List<UserSummary> getUsersAfter(Long after, int limit) {
+      // Input: id cursor (exclusive) and page size
+      // Returns: at most limit users with an id greater than the cursor, ordered by id
+      // Throws: BAD REQUEST exception in case the page size is out of range
+      if (limit < 1 || limit > MAX_PAGE_SIZE) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                  String.format("limit must be between 1 and %s", MAX_PAGE_SIZE));
+      }
+      List<UserSummary> users = userRepository.findSummariesAfter(after, PageRequest.of(0, limit));
+      users.replaceAll(presenceTracker::applyTo);
+      return users;
   }
 
-  public List<User> getUsers() {
-    return this.userRepository.findAll();
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public List<User> searchUsers(String query, int limit) {
+      // Input: typeahead query and maximum number of results
+      // Returns: users whose username or name starts with the query, served from the search index
+      // Throws: BAD REQUEST exception in case the query is blank or the limit out of range
+      if (query == null || query.isBlank()) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "q must not be blank");
+      }
+      if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                  String.format("limit must be between 1 and %s", MAX_SEARCH_LIMIT));
+      }
+      return userSearchIndex.search(query, limit);
   }
 
-  public User createUser(User newUser) {
+  @Transactional(readOnly = true)
+  public void streamUsers(Consumer<UserSummary> consumer) {
+      // Hands every user to the consumer while the rows come off the cursor.
+      // The summaries are not managed, so the persistence context stays empty.
+      try (Stream<UserSummary> users = userRepository.streamAllSummaries()) {
+          users.forEach(user -> consumer.accept(presenceTracker.applyTo(user)));
+      }
+  }
+
+  // runs without a surrounding transaction: the repository calls commit on their own, so no
+  // connection is held while the password is hashed
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public CompletableFuture<User> createUser(User newUser) {
       // creates User. Also checks if user exists.
+      // Returns: the created user, completed once the password is hashed and the user saved
+      // Throws: CONFLICT exception for a username known to be taken; a username taken
+      // concurrently fails the insert on the unique constraint (see GlobalExceptionAdvice)
     Date date = new Date();
     newUser.setCreation_date(date);
     newUser.setToken(UUID.randomUUID().toString());
@@ -48,13 +209,137 @@ public class UserService {
 
     checkIfUserExists(newUser);
 
-    newUser = userRepository.save(newUser);
+    String rawPassword = newUser.getPassword();
+    return passwordTask(() -> passwordHasher.hash(rawPassword))
+        .thenApplyAsync(encodedPassword -> {
+            newUser.setPassword(encodedPassword);
+            return saveNewUser(newUser);
+        }, completionExecutor);
+  }
+
+  private User saveNewUser(User newUser) {
+      // Helper method: inserts the user with its hashed password and makes it known to the
+      // username filter, the search index and the presence tracker
+    User savedUser = userRepository.save(newUser);
     userRepository.flush();
-    return newUser;
+    usernameFilter.put(savedUser.getUsername());
+    userSearchIndex.put(savedUser);
+    evictAfterCommit(savedUser);
+    // the account token is no bearer token, the user logs in for a session
+    sessionStore.keepOnline(savedUser.getId());
+    presenceTracker.register(savedUser.getId(), UserStatus.ONLINE);
+    eventPublisher.publishEvent(UserChangeEvent.created(savedUser));
+    return savedUser;
+  }
+
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public List<ImportStatus> importUsers(List<User> users) {
+      // Input: one chunk of users to be created
+      // Functionality: drops invalid rows and usernames repeated within the chunk, checks all
+      // remaining usernames with a single query and inserts the new users in JDBC batches.
+      // A username taken after the check fails the batch, the chunk is then inserted row by row.
+      // Imported users are OFFLINE until they log in; a created event is published for each.
+      // Return: the import status per input row; created users get their id set
+    List<ImportStatus> results = new ArrayList<>(users.size());
+    Set<String> usernames = new HashSet<>();
+    for (User user : users) {
+        if (user.getUsername() == null || user.getPassword() == null) {
+            results.add(ImportStatus.INVALID);
+        } else if (!usernames.add(user.getUsername())) {
+            results.add(ImportStatus.DUPLICATE);
+        } else {
+            results.add(null);
+        }
+    }
+    if (usernames.isEmpty()) {
+        return results;
+    }
+
+    Set<String> takenUsernames = new HashSet<>(userRepository.findExistingUsernames(usernames));
+    List<User> newUsers = new ArrayList<>();
+    List<Integer> newRows = new ArrayList<>();
+    for (int i = 0; i < users.size(); i++) {
+        if (results.get(i) != null) {
+            continue;
+        }
+        if (takenUsernames.contains(users.get(i).getUsername())) {
+            results.set(i, ImportStatus.CONFLICT);
+        } else {
+            results.set(i, ImportStatus.CREATED);
+            newUsers.add(users.get(i));
+            newRows.add(i);
+        }
+    }
+
+    List<String> rawPasswords = new ArrayList<>(newUsers.size());
+    newUsers.forEach(user -> rawPasswords.add(user.getPassword()));
+    List<String> encodedPasswords = passwordHasher.hashAll(rawPasswords);
+    Date date = new Date();
+    for (int i = 0; i < newUsers.size(); i++) {
+        User newUser = newUsers.get(i);
+        newUser.setPassword(encodedPasswords.get(i));
+        newUser.setCreation_date(date);
+        newUser.setToken(UUID.randomUUID().toString());
+        newUser.setStatus(UserStatus.OFFLINE);
+    }
+
+    List<User> savedUsers = newUsers;
+    try {
+        userRepository.saveAll(newUsers);
+    } catch (DataIntegrityViolationException e) {
+        savedUsers = saveEachUser(newUsers, newRows, results);
+    }
+    // the inserts have committed on their own, subscribers are told about every new user
+    savedUsers.forEach(newUser -> {
+        usernameFilter.put(newUser.getUsername());
+        userSearchIndex.put(newUser);
+        eventPublisher.publishEvent(UserChangeEvent.created(newUser));
+    });
+    return results;
+  }
+
+  private List<User> saveEachUser(List<User> newUsers, List<Integer> newRows, List<ImportStatus> results) {
+      // Helper method: inserts the users of a rolled back batch one by one, a user whose username
+      // was taken meanwhile is marked CONFLICT in its row of the results
+      // Returns: the users that were inserted
+    List<User> savedUsers = new ArrayList<>(newUsers.size());
+    for (int i = 0; i < newUsers.size(); i++) {
+        User newUser = newUsers.get(i);
+        // the rolled back batch has already assigned an id and a version
+        newUser.setId(null);
+        newUser.setVersion(null);
+        try {
+            savedUsers.add(userRepository.save(newUser));
+        } catch (DataIntegrityViolationException e) {
+            newUser.setId(null);
+            results.set(newRows.get(i), ImportStatus.CONFLICT);
+        }
+    }
+    return savedUsers;
+  }
+
+  // no transaction: a filter miss must not even check out a connection
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public boolean isUsernameAvailable(String username) {
+      // Input: username
+      // Returns: true if no user has the username. Most free usernames are answered by the
+      // filter alone, a probable hit is confirmed with the cache or the database.
+      // Throws: BAD REQUEST exception in case the username is blank
+      if (username == null || username.isBlank()) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "username must not be blank");
+      }
+      if (!usernameFilter.mightContain(username)) {
+          return true;
+      }
+      return userCache.getByUsername(username) == null && userRepository.findByUsername(username) == null;
   }
 
   private void checkIfUserExists(User userToBeCreated) {
       // This is a helper method. It checks uniqueness of username.
+      // Usernames the filter knows to be free skip the query and go straight to the insert.
+    if (!usernameFilter.mightContain(userToBeCreated.getUsername())) {
+        return;
+    }
     User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
 
     String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
@@ -63,13 +348,16 @@ public class UserService {
     }
   }
 
-  public User loginCredentials(User user) {
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public CompletableFuture<UserSession> loginCredentials(User user) {
       // This method check if username and password provided by user is correct.
       // Throws exception in case of discrepancies.
-      // If username, password correct, returns user information.
+      // If username, password correct, opens a new session and returns it with the user information.
+      // The returned future completes once the password is checked; a wrong password fails it.
       String username = user.getUsername();
       String password = user.getPassword();
-      User userByUsername = userRepository.findByUsername(username);
+      User cachedUser = userCache.getByUsername(username);
+      User userByUsername = cachedUser != null ? cachedUser : userRepository.findByUsername(username);
 
       String uniqueErrorMessage = "%s username not found. Please register!";
       if (userByUsername == null) {
@@ -79,26 +367,137 @@ public class UserService {
       String savedPassword = userByUsername.getPassword();
 
       String passwordErrorMessage = "Password incorrect! Try again!";
-      if (!password.equals(savedPassword)) {
-          throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, String.format(passwordErrorMessage));
+      return passwordTask(() -> passwordHasher.matches(password, savedPassword))
+          .thenComposeAsync(matches -> {
+              if (!matches) {
+                  throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, String.format(passwordErrorMessage));
+              }
+              // transparently upgrade plaintext passwords and hashes made with an old work factor
+              if (!passwordHasher.needsRehash(savedPassword)) {
+                  return CompletableFuture.completedFuture(openSession(userByUsername));
+              }
+              return passwordTask(() -> passwordHasher.hash(password))
+                  .thenApplyAsync(encodedPassword -> {
+                      userByUsername.setPassword(encodedPassword);
+                      return openSession(userRepository.save(userByUsername));
+                  }, completionExecutor);
+          }, completionExecutor);
+  }
+
+  private UserSession openSession(User user) {
+      // Helper method: opens a new session for the user whose password was checked
+      // the session is open before the status changes, so its expiry cannot undo the ONLINE
+      String token = sessionStore.open(user.getId());
+      user.setStatus(UserStatus.ONLINE);
+      if (presenceTracker.setStatus(user.getId(), UserStatus.ONLINE)) {
+          eventPublisher.publishEvent(UserChangeEvent.statusChanged(user.getId(), UserStatus.ONLINE));
+      }
+      evictAfterCommit(user);
+      return new UserSession(user, token);
+  }
+
+  private <T> CompletableFuture<T> passwordTask(Supplier<CompletableFuture<T>> task) {
+      // Helper method: submits a task to the password hasher without waiting for its result.
+      // Throws: SERVICE UNAVAILABLE exception in case the hasher is saturated
+      try {
+          return task.get();
+      } catch (RejectedExecutionException e) {
+          throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent password checks, try again later");
+      }
+  }
+
+  private void evictAfterCommit(User user) {
+      // Helper method: evicts the user once the transaction has committed. Evicted earlier, a
+      // concurrent read could cache the old row again before the commit.
+      afterCommit(() -> userCache.evict(user));
+  }
+
+  private void afterCommit(Runnable action) {
+      // Helper method: runs the action once the transaction has committed and not at all if it
+      // rolls back; without a transaction the change is already committed and it runs right away
+      if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+          action.run();
+          return;
       }
-      userByUsername.setStatus(UserStatus.ONLINE);
-      return userByUsername;
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+              action.run();
+          }
+      });
   }
 
+  @Transactional(readOnly = true)
   public User getUserbyUserID(Long id) {
       // Input: id
       // Returns: User information of given user id
       // Throws: Throws NOT FOUND exception in case given user id not found
-      User userById = userRepository.findByid(id);
+      User userById = userCache.getById(id);
+      if (userById == null) {
+          userById = userRepository.findByid(id);
+          if (userById != null) {
+              cacheIfCurrent(userById);
+          }
+      }
 
       String uniqueErrorMessage = "User with user id %s not found!";
       if (userById == null) {
           throw new ResponseStatusException(HttpStatus.NOT_FOUND, String.format(uniqueErrorMessage, id));
       }
+      presenceTracker.applyTo(userById);
       return userById;
   }
 
+  @Transactional(readOnly = true)
+  public List<User> getUsersByIds(List<Long> ids) {
+      // Input: user ids, at most MAX_BATCH_SIZE
+      // Returns: the users in the order of the ids, null for an id without user.
+      // Cached users come from the cache, all others are loaded with a single query.
+      // Throws: BAD REQUEST exception in case no ids, an empty id or too many ids are given
+      if (ids == null || ids.isEmpty() || ids.size() > MAX_BATCH_SIZE) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                  String.format("between 1 and %s ids must be given", MAX_BATCH_SIZE));
+      }
+      if (ids.contains(null)) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids must not be empty");
+      }
+
+      Map<Long, User> usersById = new HashMap<>();
+      Set<Long> uncachedIds = new HashSet<>();
+      for (Long id : ids) {
+          User cachedUser = userCache.getById(id);
+          if (cachedUser != null) {
+              usersById.put(id, cachedUser);
+          } else {
+              uncachedIds.add(id);
+          }
+      }
+      if (!uncachedIds.isEmpty()) {
+          for (User loadedUser : userRepository.findAllById(uncachedIds)) {
+              cacheIfCurrent(loadedUser);
+              usersById.put(loadedUser.getId(), loadedUser);
+          }
+      }
+
+      List<User> users = new ArrayList<>(ids.size());
+      for (Long id : ids) {
+          User userById = usersById.get(id);
+          if (userById != null) {
+              presenceTracker.applyTo(userById);
+          }
+          users.add(userById);
+      }
+      return users;
+  }
+
+  private void cacheIfCurrent(User user) {
+      // Helper method: caches a user read from the primary. A replica may still serve the row
+      // as it was before the last edit, cached it would outlive the lag for the whole ttl.
+      if (!ReadWriteRoutingDataSource.isCurrentTransactionOnReplica()) {
+          userCache.put(user);
+      }
+  }
+
   public User editUserbyUserID(User user) {
       // Input: user information to be edited
       // Functionality: Edit the user information
@@ -121,21 +520,31 @@ public class UserService {
           throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(uniqueErrorMessage));
       }
 
+      evictAfterCommit(userbyID);
       if (username != null) {
           userbyID.setUsername(username);
+          usernameFilter.put(username);
       }
       if (birthday != null) {
           userbyID.setBirthday(birthday);
       }
+      // a username taken meanwhile only fails at commit, the index must not have the new one then
+      afterCommit(() -> userSearchIndex.put(userbyID));
+      eventPublisher.publishEvent(UserChangeEvent.profileChanged(userbyID));
       return userbyID;
   }
 
   public User logoutUserbyUserID(Long userid) {
       // Input: user id
-      // Function: Change online status to offline
+      // Function: Close all sessions of the user and change online status to offline
       // Return: Edited user information
       User userbyID = userRepository.findByid(userid);
+      sessionStore.closeAll(userbyID.getId());
       userbyID.setStatus(UserStatus.OFFLINE);
+      if (presenceTracker.setStatus(userbyID.getId(), UserStatus.OFFLINE)) {
+          eventPublisher.publishEvent(UserChangeEvent.statusChanged(userbyID.getId(), UserStatus.OFFLINE));
+      }
+      evictAfterCommit(userbyID);
       return userbyID;
   }
 }
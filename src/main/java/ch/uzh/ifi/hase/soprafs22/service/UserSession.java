@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+
+/**
+ * User Session
+ * Result of a login: the user and the token of the session opened for it.
+ */
+public class UserSession {
+
+  private final User user;
+  private final String token;
+
+  public UserSession(User user, String token) {
+    this.user = user;
+    this.token = token;
+  }
+
+  public User getUser() {
+    return user;
+  }
+
+  public String getToken() {
+    return token;
+  }
+}
@@ -0,0 +1,91 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.utils.BloomFilter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Username Filter
+ * Bloom filter of every username in use. It is seeded from the USER table at
+ * startup and kept up to date by the UserService, so a username that is
+ * definitely free is recognised without a query. A probable hit still has to
+ * be confirmed with UserRepository.findByUsername; usernames given up by a
+ * rename stay in the filter as false positives.
+ * Until the filter is seeded every username counts as a probable hit.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class UsernameFilter implements ApplicationRunner, MeterBinder {
+
+  static final String USERNAMES_SQL = "SELECT username FROM \"USER\"";
+
+  private final Logger log = LoggerFactory.getLogger(UsernameFilter.class);
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final BloomFilter filter;
+
+  private volatile boolean seeded;
+
+  private final LongAdder insertions = new LongAdder();
+
+  private final LongAdder probableHits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  public UsernameFilter(JdbcTemplate jdbcTemplate,
+                        @Value("${app.username-filter.expected-insertions:1000000}") long expectedInsertions,
+                        @Value("${app.username-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.filter = new BloomFilter(expectedInsertions, falsePositiveRate);
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    jdbcTemplate.query(USERNAMES_SQL, resultSet -> {
+      put(resultSet.getString(1));
+    });
+    seeded = true;
+    log.info("Username filter seeded with {} usernames ({} bits, {} hash functions)",
+        insertions.sum(), filter.bitSize(), filter.hashFunctions());
+  }
+
+  public void put(String username) {
+    filter.put(username);
+    insertions.increment();
+  }
+
+  public boolean mightContain(String username) {
+      // Returns: false if the username is definitely not in use
+    if (username == null || seeded && !filter.mightContain(username)) {
+      misses.increment();
+      return false;
+    }
+    probableHits.increment();
+    return true;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("users.username.filter.insertions", insertions, LongAdder::sum)
+        .register(registry);
+    FunctionCounter.builder("users.username.filter.lookups", probableHits, LongAdder::sum)
+        .tag("result", "probable_hit")
+        .register(registry);
+    FunctionCounter.builder("users.username.filter.lookups", misses, LongAdder::sum)
+        .tag("result", "miss")
+        .register(registry);
+  }
+}
@@ -0,0 +1,84 @@
+package ch.uzh.ifi.hase.soprafs22.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom Filter
+ * Compact set of strings that answers "definitely not contained" or "maybe
+ * contained": there are no false negatives, and false positives occur at
+ * roughly the configured rate as long as no more than the expected number of
+ * values have been added. Values cannot be removed.
+ * Adds and lookups are lock-free and may run concurrently.
+ */
+public class BloomFilter {
+
+  private final AtomicLongArray words;
+
+  private final long bitCount;
+
+  private final int hashFunctions;
+
+  public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+    if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("expectedInsertions must be positive and falsePositiveRate in (0, 1)");
+    }
+    // optimal size m = -n ln(p) / ln(2)^2 and number of hash functions k = m/n ln(2)
+    long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, (optimalBits + 63) / 64);
+    this.words = new AtomicLongArray(wordCount);
+    this.bitCount = wordCount * 64L;
+    this.hashFunctions = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+  }
+
+  public void put(String value) {
+    long hash1 = hash(value);
+    long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+    for (int i = 0; i < hashFunctions; i++) {
+      long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+      long mask = 1L << bit;
+      int index = (int) (bit >>> 6);
+      if ((words.get(index) & mask) == 0) {
+        words.getAndAccumulate(index, mask, (word, bits) -> word | bits);
+      }
+    }
+  }
+
+  public boolean mightContain(String value) {
+    long hash1 = hash(value);
+    long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+    for (int i = 0; i < hashFunctions; i++) {
+      long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+      if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public long bitSize() {
+    return bitCount;
+  }
+
+  public int hashFunctions() {
+    return hashFunctions;
+  }
+
+  private static long hash(String value) {
+      // FNV-1a over the chars, spread by the MurmurHash3 finalizer
+    long hash = 0xCBF29CE484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001B3L;
+    }
+    return mix(hash);
+  }
+
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
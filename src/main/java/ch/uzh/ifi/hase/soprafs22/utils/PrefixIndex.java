@@ -0,0 +1,374 @@
+package ch.uzh.ifi.hase.soprafs22.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Prefix Index
+ * Sorted index of (key, id) pairs for prefix queries. The bulk of the entries
+ * lives in packed primitive arrays (one char[] holding all keys, their
+ * offsets and the ids), sorted by key and id, so a query is a binary search
+ * followed by a scan of the matching entries in key order.
+ * Adds and removes are appended to a short log that queries apply on the fly.
+ * Once the log reaches the compaction threshold it is merged into a new set of
+ * arrays on a background thread, outside of the lock, and swapped in.
+ * Queries take the read lock, writes and the swap take the write lock.
+ */
+public class PrefixIndex {
+
+  private static final Comparator<Entry> ENTRY_ORDER =
+      Comparator.comparing((Entry entry) -> entry.key).thenComparingLong(entry -> entry.id);
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // guarded by lock
+  private Segment segment = Segment.EMPTY;
+
+  // guarded by lock, only ever appended to or cleared from the front by a compaction
+  private final List<Operation> log = new ArrayList<>();
+
+  private final int compactionThreshold;
+
+  private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "prefix-index-compactor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public PrefixIndex(int compactionThreshold) {
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  public void add(String key, long id) {
+    append(new Operation(new Entry(key, id), true));
+  }
+
+  public void remove(String key, long id) {
+    append(new Operation(new Entry(key, id), false));
+  }
+
+  public void addAll(List<String> keys, List<Long> ids) {
+      // Bulk load: merges all pairs into the arrays at once instead of in many compactions
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < keys.size(); i++) {
+        log.add(new Operation(new Entry(keys.get(i), ids.get(i)), true));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    compact();
+  }
+
+  private void append(Operation operation) {
+    int logSize;
+    lock.writeLock().lock();
+    try {
+      log.add(operation);
+      logSize = log.size();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    if (logSize >= compactionThreshold && compactionScheduled.compareAndSet(false, true)) {
+      compactor.execute(() -> {
+        compactionScheduled.set(false);
+        compact();
+      });
+    }
+  }
+
+  public List<Long> search(String prefix, int limit) {
+      // Returns: ids of at most limit entries whose key starts with the prefix, in key order,
+      // each id once (at its smallest matching key)
+    Set<Long> ids = new LinkedHashSet<>();
+    lock.readLock().lock();
+    try {
+      Map<Entry, Boolean> pending = netEffect(log, prefix);
+      List<Entry> added = new ArrayList<>();
+      Set<Long> removedIds = new HashSet<>();
+      pending.forEach((entry, add) -> {
+        if (add) {
+          added.add(entry);
+        } else {
+          removedIds.add(entry.id);
+        }
+      });
+      added.sort(ENTRY_ORDER);
+
+      int next = segment.lowerBound(prefix);
+      int nextAdded = 0;
+      while (ids.size() < limit) {
+        boolean fromSegment = next < segment.size && segment.startsWith(next, prefix);
+        if (!fromSegment && nextAdded == added.size()) {
+          break;
+        }
+        Entry addedEntry = nextAdded < added.size() ? added.get(nextAdded) : null;
+        int order = !fromSegment ? 1 : addedEntry == null ? -1 : segment.compare(next, addedEntry.key, addedEntry.id);
+        if (order > 0) {
+          ids.add(addedEntry.id);
+          nextAdded++;
+          continue;
+        }
+        if (order == 0) {
+          nextAdded++;
+        }
+        if (!isRemoved(segment, next, removedIds, pending)) {
+          ids.add(segment.ids[next]);
+        }
+        next++;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return new ArrayList<>(ids);
+  }
+
+  public synchronized void compact() {
+      // Merges the current log into a new segment. Writes arriving meanwhile stay in the log.
+    Segment base;
+    List<Operation> operations;
+    lock.readLock().lock();
+    try {
+      base = segment;
+      operations = new ArrayList<>(log);
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (operations.isEmpty()) {
+      return;
+    }
+
+    Segment merged = merge(base, netEffect(operations, ""));
+    lock.writeLock().lock();
+    try {
+      segment = merged;
+      log.subList(0, operations.size()).clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return segment.size + log.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public void shutdown() {
+    compactor.shutdownNow();
+  }
+
+  private static Map<Entry, Boolean> netEffect(List<Operation> operations, String prefix) {
+      // Returns: for every entry touched by the operations under the prefix, whether it ends up present
+    Map<Entry, Boolean> effect = new HashMap<>();
+    for (Operation operation : operations) {
+      if (operation.entry.key.startsWith(prefix)) {
+        effect.put(operation.entry, operation.add);
+      }
+    }
+    return effect;
+  }
+
+  private static boolean isRemoved(Segment segment, int index, Set<Long> removedIds, Map<Entry, Boolean> effect) {
+      // the key is only materialised for the few ids with a pending removal
+    return removedIds.contains(segment.ids[index])
+        && Boolean.FALSE.equals(effect.get(new Entry(segment.key(index), segment.ids[index])));
+  }
+
+  private static Segment merge(Segment base, Map<Entry, Boolean> effect) {
+    Entry[] added = effect.entrySet().stream()
+        .filter(Map.Entry::getValue)
+        .map(Map.Entry::getKey)
+        .sorted(ENTRY_ORDER)
+        .toArray(Entry[]::new);
+    Set<Long> removedIds = new HashSet<>();
+    effect.forEach((entry, add) -> {
+      if (!add) {
+        removedIds.add(entry.id);
+      }
+    });
+
+    Segment.Builder builder = new Segment.Builder(base.size + added.length, base.chars.length);
+    int next = 0;
+    int nextAdded = 0;
+    while (next < base.size || nextAdded < added.length) {
+      int order = next == base.size ? 1 : nextAdded == added.length ? -1
+          : base.compare(next, added[nextAdded].key, added[nextAdded].id);
+      if (order > 0) {
+        builder.add(added[nextAdded].key, added[nextAdded].id);
+        nextAdded++;
+        continue;
+      }
+      if (order == 0) {
+        nextAdded++;
+      }
+      if (!isRemoved(base, next, removedIds, effect)) {
+        builder.copy(base, next);
+      }
+      next++;
+    }
+    return builder.build();
+  }
+
+  private static final class Entry {
+    private final String key;
+    private final long id;
+
+    private Entry(String key, long id) {
+      this.key = key;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Entry)) {
+        return false;
+      }
+      Entry entry = (Entry) other;
+      return id == entry.id && key.equals(entry.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(key, id);
+    }
+  }
+
+  private static final class Operation {
+    private final Entry entry;
+    private final boolean add;
+
+    private Operation(Entry entry, boolean add) {
+      this.entry = entry;
+      this.add = add;
+    }
+  }
+
+  private static final class Segment {
+
+    private static final Segment EMPTY = new Segment(new char[0], new int[] { 0 }, new long[0], 0);
+
+    private final char[] chars;
+
+    // key i spans chars[offsets[i]] to chars[offsets[i + 1]]
+    private final int[] offsets;
+
+    private final long[] ids;
+
+    private final int size;
+
+    private Segment(char[] chars, int[] offsets, long[] ids, int size) {
+      this.chars = chars;
+      this.offsets = offsets;
+      this.ids = ids;
+      this.size = size;
+    }
+
+    private String key(int index) {
+      return new String(chars, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    private int lowerBound(String prefix) {
+        // Returns: index of the first key that is not smaller than the prefix
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (compareKey(middle, prefix) < 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private boolean startsWith(int index, String prefix) {
+      int start = offsets[index];
+      if (offsets[index + 1] - start < prefix.length()) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length(); i++) {
+        if (chars[start + i] != prefix.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int compare(int index, String key, long id) {
+      int order = compareKey(index, key);
+      return order != 0 ? order : Long.compare(ids[index], id);
+    }
+
+    private int compareKey(int index, String key) {
+      // same order as String.compareTo
+      int start = offsets[index];
+      int length = offsets[index + 1] - start;
+      int common = Math.min(length, key.length());
+      for (int i = 0; i < common; i++) {
+        char c = chars[start + i];
+        if (c != key.charAt(i)) {
+          return c - key.charAt(i);
+        }
+      }
+      return length - key.length();
+    }
+
+    private static final class Builder {
+      private char[] chars;
+      private final int[] offsets;
+      private final long[] ids;
+      private int size;
+
+      private Builder(int capacity, int charCapacity) {
+        this.chars = new char[Math.max(16, charCapacity)];
+        this.offsets = new int[capacity + 1];
+        this.ids = new long[capacity];
+      }
+
+      private void add(String key, long id) {
+        int start = offsets[size];
+        if (start + key.length() > chars.length) {
+          chars = Arrays.copyOf(chars, Math.max(chars.length * 2, start + key.length()));
+        }
+        key.getChars(0, key.length(), chars, start);
+        ids[size] = id;
+        offsets[++size] = start + key.length();
+      }
+
+      private void copy(Segment segment, int index) {
+        int start = offsets[size];
+        int length = segment.offsets[index + 1] - segment.offsets[index];
+        if (start + length > chars.length) {
+          chars = Arrays.copyOf(chars, Math.max(chars.length * 2, start + length));
+        }
+        System.arraycopy(segment.chars, segment.offsets[index], chars, start, length);
+        ids[size] = segment.ids[index];
+        offsets[++size] = start + length;
+      }
+
+      private Segment build() {
+        return new Segment(Arrays.copyOf(chars, offsets[size]), Arrays.copyOf(offsets, size + 1),
+            Arrays.copyOf(ids, size), size);
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package ch.uzh.ifi.hase.soprafs22.cache;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalUserCacheTest {
+
+  private LocalUserCache userCache;
+
+  private User testUser;
+
+  @BeforeEach
+  public void setup() {
+    userCache = new LocalUserCache(100, 600);
+
+    testUser = new User();
+    testUser.setId(1L);
+    testUser.setUsername("testUsername");
+  }
+
+  @Test
+  public void put_user_foundByIdAndUsername() {
+    userCache.put(testUser);
+
+    assertEquals("testUsername", userCache.getById(1L).getUsername());
+    assertEquals(1L, userCache.getByUsername("testUsername").getId());
+    assertEquals(2, userCache.stats().hitCount());
+  }
+
+  @Test
+  public void getById_changedByCaller_cacheUnchanged() {
+    testUser.setStatus(UserStatus.OFFLINE);
+    userCache.put(testUser);
+
+    User cachedUser = userCache.getById(1L);
+    cachedUser.setStatus(UserStatus.ONLINE);
+    testUser.setUsername("otherUsername");
+
+    assertNotSame(cachedUser, userCache.getById(1L));
+    assertEquals(UserStatus.OFFLINE, userCache.getById(1L).getStatus());
+    assertEquals("testUsername", userCache.getById(1L).getUsername());
+  }
+
+  @Test
+  public void evict_user_removedUnderBothKeys() {
+    userCache.put(testUser);
+    userCache.evict(testUser);
+
+    assertNull(userCache.getById(1L));
+    assertNull(userCache.getByUsername("testUsername"));
+  }
+
+  @Test
+  public void getByUsername_usernameChanged_staleMappingIgnored() {
+    userCache.put(testUser);
+    User renamedUser = new User();
+    renamedUser.setId(1L);
+    renamedUser.setUsername("otherUsername");
+    userCache.put(renamedUser);
+
+    assertNull(userCache.getByUsername("testUsername"));
+  }
+}
@@ -0,0 +1,132 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Two in-memory H2 databases stand in for the primary and the replica, each
+ * holding a row that names the database.
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+  private static final String LAG_QUERY = "SELECT lag_ms FROM replication_status";
+
+  private JdbcTemplate primaryJdbc;
+
+  private JdbcTemplate replicaJdbc;
+
+  private ReadWriteRoutingDataSource routingDataSource;
+
+  private JdbcTemplate jdbcTemplate;
+
+  private TransactionTemplate readWrite;
+
+  private TransactionTemplate readOnly;
+
+  @BeforeEach
+  public void setup() {
+    DataSource primary = h2("primary");
+    DataSource replica = h2("replica");
+    primaryJdbc = new JdbcTemplate(primary);
+    replicaJdbc = new JdbcTemplate(replica);
+    primaryJdbc.execute("CREATE TABLE origin (name VARCHAR(16))");
+    primaryJdbc.update("INSERT INTO origin VALUES ('primary')");
+    replicaJdbc.execute("CREATE TABLE origin (name VARCHAR(16))");
+    replicaJdbc.update("INSERT INTO origin VALUES ('replica')");
+    replicaJdbc.execute("CREATE TABLE replication_status (lag_ms BIGINT)");
+    replicaJdbc.update("INSERT INTO replication_status VALUES (0)");
+
+    routingDataSource = new ReadWriteRoutingDataSource(primary, Map.of("replica-1", replica), LAG_QUERY, 1000);
+    routingDataSource.afterPropertiesSet();
+    DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+    jdbcTemplate = new JdbcTemplate(dataSource);
+
+    DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+    readWrite = new TransactionTemplate(transactionManager);
+    readOnly = new TransactionTemplate(transactionManager);
+    readOnly.setReadOnly(true);
+  }
+
+  @Test
+  public void readOnlyTransaction_routedToReplica() {
+    assertEquals("replica", readOnly.execute(status -> origin()));
+    assertEquals(1, routingDataSource.getRouted("replica-1", "read"));
+  }
+
+  @Test
+  public void readWriteTransaction_routedToPrimary() {
+    assertEquals("primary", readWrite.execute(status -> origin()));
+    assertEquals("primary", origin());
+    assertEquals(0, routingDataSource.getRouted("replica-1", "read"));
+  }
+
+  @Test
+  public void replicaLagging_readsFallBackToPrimary() {
+    // when -> the replica reports a lag above the maximum
+    replicaJdbc.update("UPDATE replication_status SET lag_ms = 5000");
+    routingDataSource.checkReplicas();
+
+    // then
+    assertEquals(5000, routingDataSource.getLagMillis("replica-1"));
+    assertEquals("primary", readOnly.execute(status -> origin()));
+    assertEquals(1, routingDataSource.getRouted(ReadWriteRoutingDataSource.PRIMARY, "fallback"));
+
+    // when -> the replica has caught up again
+    replicaJdbc.update("UPDATE replication_status SET lag_ms = 10");
+    routingDataSource.checkReplicas();
+
+    // then
+    assertEquals("replica", readOnly.execute(status -> origin()));
+  }
+
+  @Test
+  public void replicaRead_transactionMarkedUntilCompleted() {
+    assertTrue(readOnly.execute(status -> {
+      origin();
+      return ReadWriteRoutingDataSource.isCurrentTransactionOnReplica();
+    }));
+    assertFalse(ReadWriteRoutingDataSource.isCurrentTransactionOnReplica());
+    assertFalse(readWrite.execute(status -> {
+      origin();
+      return ReadWriteRoutingDataSource.isCurrentTransactionOnReplica();
+    }));
+  }
+
+  @Test
+  public void replicaLagging_fallbackReadNotMarked() {
+    replicaJdbc.update("UPDATE replication_status SET lag_ms = 5000");
+    routingDataSource.checkReplicas();
+
+    assertFalse(readOnly.execute(status -> {
+      origin();
+      return ReadWriteRoutingDataSource.isCurrentTransactionOnReplica();
+    }));
+  }
+
+  @Test
+  public void replicaUnreachable_readsFallBackToPrimary() {
+    replicaJdbc.execute("DROP TABLE replication_status");
+    routingDataSource.checkReplicas();
+
+    assertEquals("primary", readOnly.execute(status -> origin()));
+  }
+
+  private String origin() {
+    return jdbcTemplate.queryForObject("SELECT name FROM origin", String.class);
+  }
+
+  private static DataSource h2(String name) {
+    return new DriverManagerDataSource("jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+  }
+}
@@ -0,0 +1,266 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.exceptions.LoginThrottledException;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.EditUserPutDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.LoginUserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.security.LoginRateLimiter;
+import ch.uzh.ifi.hase.soprafs22.service.ReactiveUserService;
+import ch.uzh.ifi.hase.soprafs22.service.UserSession;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Date;
+
+import static org.mockito.BDDMockito.given;
+
+/**
+ * ReactiveUserControllerTest
+ * The scenarios of the UserControllerTest against the ReactiveUserController,
+ * which has to answer them the same way.
+ */
+@WebFluxTest(ReactiveUserController.class)
+public class ReactiveUserControllerTest {
+
+  @Autowired
+  private WebTestClient webTestClient;
+
+  @MockBean
+  private ReactiveUserService userService;
+
+  @MockBean
+  private LoginRateLimiter loginRateLimiter;
+
+  // GET: get all the users
+  @Test
+  public void givenUsers_whenGetUsers_thenReturnJsonArray() {
+    // given
+    UserSummary user = new UserSummary(1L, "Firstname Lastname", "firstname@lastname", UserStatus.OFFLINE);
+    given(userService.getUsers()).willReturn(Flux.just(user));
+    given(userService.getUsersETag()).willReturn(Mono.just("\"1-1-0-a.0\""));
+
+    // when/then
+    webTestClient.get().uri("/users").accept(MediaType.APPLICATION_JSON).exchange()
+        .expectStatus().isOk()
+        .expectHeader().valueEquals("ETag", "\"1-1-0-a.0\"")
+        .expectBody()
+        .jsonPath("$.length()").isEqualTo(1)
+        .jsonPath("$[0].name").isEqualTo(user.getName())
+        .jsonPath("$[0].username").isEqualTo(user.getUsername())
+        .jsonPath("$[0].status").isEqualTo(user.getStatus().toString());
+  }
+
+  // GET: unchanged user list is answered with 304 without loading the users
+  @Test
+  public void givenMatchingETag_whenGetUsers_thenNotModified() {
+    given(userService.getUsersETag()).willReturn(Mono.just("\"1-1-0-a.0\""));
+
+    webTestClient.get().uri("/users").header("If-None-Match", "\"1-1-0-a.0\"").exchange()
+        .expectStatus().isNotModified()
+        .expectBody().isEmpty();
+    Mockito.verify(userService, Mockito.never()).getUsers();
+  }
+
+  // GET: unchanged user profile is answered with 304
+  @Test
+  public void givenMatchingETag_whenGetUser_thenNotModified() {
+    User user = new User();
+    user.setId(1L);
+    user.setVersion(2L);
+    user.setStatus(UserStatus.ONLINE);
+    given(userService.getUserbyUserID(Mockito.any())).willReturn(Mono.just(user));
+
+    webTestClient.get().uri("/users/1").header("If-None-Match", "\"1-2-ONLINE\"").exchange()
+        .expectStatus().isNotModified();
+  }
+
+  // GET: get one keyset page of users
+  @Test
+  public void givenUsers_whenGetUsersPage_thenReturnPageWithCursor() {
+    UserSummary user = new UserSummary(7L, "Firstname Lastname", "firstname@lastname", UserStatus.OFFLINE);
+    given(userService.getUsersAfter(3L, 1)).willReturn(Flux.just(user));
+
+    webTestClient.get().uri("/users?after=3&limit=1").exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.users.length()").isEqualTo(1)
+        .jsonPath("$.users[0].username").isEqualTo(user.getUsername())
+        .jsonPath("$.next").isEqualTo(7);
+  }
+
+  // GET: the user list as newline delimited JSON
+  @Test
+  public void givenUsers_whenStreamUsers_thenOneLinePerUser() {
+    given(userService.getUsers()).willReturn(Flux.just(
+        new UserSummary(1L, "A", "a", UserStatus.ONLINE), new UserSummary(2L, "B", "b", UserStatus.OFFLINE)));
+
+    webTestClient.get().uri("/users?stream=true").accept(MediaType.APPLICATION_NDJSON).exchange()
+        .expectStatus().isOk()
+        .expectBody(String.class).isEqualTo(
+            "{\"id\":1,\"name\":\"A\",\"username\":\"a\",\"status\":\"ONLINE\"}\n"
+                + "{\"id\":2,\"name\":\"B\",\"username\":\"b\",\"status\":\"OFFLINE\"}\n");
+  }
+
+  // GET: a page and a stream in one request are rejected, neither is served
+  @Test
+  public void givenLimitAndStream_whenGetUsers_thenBadRequest() {
+    webTestClient.get().uri("/users?limit=1&stream=true").exchange()
+        .expectStatus().isBadRequest();
+    Mockito.verifyNoInteractions(userService);
+  }
+
+  // POST: Register step; Create new user
+  @Test
+  public void createUser_validInput_userCreated() {
+    User user = new User();
+    user.setId(1L);
+    user.setName("Test User");
+    user.setUsername("testUsername");
+    user.setToken("1");
+    user.setStatus(UserStatus.ONLINE);
+    given(userService.createUser(Mockito.any())).willReturn(Mono.just(user));
+
+    webTestClient.post().uri("/users").contentType(MediaType.APPLICATION_JSON).bodyValue(newUserPostDTO()).exchange()
+        .expectStatus().isCreated()
+        .expectBody()
+        .jsonPath("$.id").isEqualTo(1)
+        .jsonPath("$.username").isEqualTo(user.getUsername())
+        .jsonPath("$.status").isEqualTo(user.getStatus().toString());
+  }
+
+  // POST: add User failed because username already exists
+  @Test
+  public void doubledUser_validInput_throwexceptions() {
+    given(userService.createUser(Mockito.any())).willReturn(Mono.error(new ResponseStatusException(HttpStatus.CONFLICT)));
+
+    webTestClient.post().uri("/users").contentType(MediaType.APPLICATION_JSON).bodyValue(newUserPostDTO()).exchange()
+        .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+  }
+
+  // POST: Test for Login step
+  @Test
+  public void givenUser_validlogin_thenReturnUser() {
+    User user = new User();
+    user.setId(1L);
+    user.setName("Rupal");
+    user.setUsername("rupal.saxena.rs@gmail.com");
+    user.setCreation_date(new Date());
+    user.setStatus(UserStatus.ONLINE);
+    given(userService.loginCredentials(Mockito.any())).willReturn(Mono.just(new UserSession(user, "sessionToken")));
+
+    LoginUserPostDTO loginUserPostDTO = new LoginUserPostDTO();
+    loginUserPostDTO.setUsername("rupal.saxena.rs@gmail.com");
+    loginUserPostDTO.setPassword("rupal");
+
+    webTestClient.post().uri("/login").contentType(MediaType.APPLICATION_JSON).bodyValue(loginUserPostDTO).exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.id").isEqualTo(1)
+        .jsonPath("$.name").isEqualTo(user.getName())
+        .jsonPath("$.username").isEqualTo(user.getUsername())
+        .jsonPath("$.status").isEqualTo(user.getStatus().toString())
+        .jsonPath("$.token").isEqualTo("sessionToken");
+  }
+
+  // POST: login attempts over the limit are refused before the credentials are checked
+  @Test
+  public void givenThrottledLogin_thenTooManyRequests() {
+    Mockito.doThrow(new LoginThrottledException(20)).when(loginRateLimiter).acquire(Mockito.eq("testUsername"), Mockito.any());
+
+    LoginUserPostDTO loginUserPostDTO = new LoginUserPostDTO();
+    loginUserPostDTO.setUsername("testUsername");
+    loginUserPostDTO.setPassword("testPassword");
+
+    webTestClient.post().uri("/login").contentType(MediaType.APPLICATION_JSON).bodyValue(loginUserPostDTO).exchange()
+        .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+        .expectHeader().valueEquals("Retry-After", "20");
+    Mockito.verify(userService, Mockito.never()).loginCredentials(Mockito.any());
+  }
+
+  // GET: Retrieve user profile from user id
+  @Test
+  public void givenUser_whenUserId_ReturnFullUserInfo() {
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("EmmaIsBest");
+    user.setCreation_date(new Date());
+    user.setStatus(UserStatus.ONLINE);
+    given(userService.getUserbyUserID(Mockito.any())).willReturn(Mono.just(user));
+
+    webTestClient.get().uri("/users/1").exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.id").isEqualTo(1)
+        .jsonPath("$.username").isEqualTo(user.getUsername())
+        .jsonPath("$.status").isEqualTo(user.getStatus().toString());
+  }
+
+  // GET: user with userId was not found
+  @Test
+  public void givenId_IdNotFound_throwexception() {
+    given(userService.getUserbyUserID(Mockito.any())).willReturn(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)));
+
+    webTestClient.get().uri("/users/1").exchange()
+        .expectStatus().isNotFound();
+  }
+
+  // PUT: Test for Edit/Update User Profile
+  @Test
+  public void givenUser_whenEdit_ReturnEdited() {
+    given(userService.editUserbyUserID(Mockito.any())).willReturn(Mono.just(new User()));
+
+    webTestClient.put().uri("/users/1").contentType(MediaType.APPLICATION_JSON).bodyValue(newEditUserPutDTO()).exchange()
+        .expectStatus().isNoContent();
+  }
+
+  // PUT: update user profile but userid not found!!
+  @Test
+  public void givenId_attemptedit_IdNotFound() {
+    given(userService.editUserbyUserID(Mockito.any())).willReturn(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND)));
+
+    webTestClient.put().uri("/users/1").contentType(MediaType.APPLICATION_JSON).bodyValue(newEditUserPutDTO()).exchange()
+        .expectStatus().isNotFound();
+  }
+
+  // PUT: Test to Logout User
+  @Test
+  public void GivenId_whenlogout_OfflineStatus() {
+    User user = new User();
+    user.setId(1L);
+    user.setStatus(UserStatus.OFFLINE);
+    given(userService.logoutUserbyUserID(Mockito.any())).willReturn(Mono.just(user));
+
+    webTestClient.put().uri("/logout/1").exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.id").isEqualTo(1)
+        .jsonPath("$.status").isEqualTo(user.getStatus().toString());
+  }
+
+  private static UserPostDTO newUserPostDTO() {
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setName("Test User");
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("testPassword");
+    return userPostDTO;
+  }
+
+  private static EditUserPutDTO newEditUserPutDTO() {
+    EditUserPutDTO editUserPutDTO = new EditUserPutDTO();
+    editUserPutDTO.setUsername("SoPra@yahoo.com");
+    editUserPutDTO.setBirthday(new Date());
+    return editUserPutDTO;
+  }
+}
@@ -1,32 +1,52 @@
 package ch.uzh.ifi.hase.soprafs22.controller;
 
+import ch.uzh.ifi.hase.soprafs22.constant.ImportStatus;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.exceptions.LoginThrottledException;
+import ch.uzh.ifi.hase.soprafs22.repository.UserSummary;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.EditUserPutDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.LoginUserPostDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.security.LoginRateLimiter;
 import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import ch.uzh.ifi.hase.soprafs22.service.UserSession;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.web.server.ResponseStatusException;
+import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.BDDMockito.given;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -44,32 +64,117 @@ public class UserControllerTest {
   @MockBean
   private UserService userService;
 
+  @MockBean
+  private LoginRateLimiter loginRateLimiter;
+
   // GET: get all the users
   @Test
   public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
     // given
-    User user = new User();
-    user.setName("Firstname Lastname");
-    user.setUsername("firstname@lastname");
-    user.setStatus(UserStatus.OFFLINE);
+    UserSummary user = new UserSummary(1L, "Firstname Lastname", "firstname@lastname", UserStatus.OFFLINE);
 
-    List<User> allUsers = Collections.singletonList(user);
+    List<UserSummary> allUsers = Collections.singletonList(user);
 
     // this mocks the UserService -> we define above what the userService should
     // return when getUsers() is called
     given(userService.getUsers()).willReturn(allUsers);
+    given(userService.getUsersETag()).willReturn("\"1-1-0-a.0\"");
 
     // when
     MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
 
     // then
     mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(header().string("ETag", "\"1-1-0-a.0\""))
         .andExpect(jsonPath("$", hasSize(1)))
         .andExpect(jsonPath("$[0].name", is(user.getName())))
         .andExpect(jsonPath("$[0].username", is(user.getUsername())))
         .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
   }
 
+  // GET: unchanged user list is answered with 304 without loading the users
+  @Test
+  public void givenMatchingETag_whenGetUsers_thenNotModified() throws Exception {
+    // given
+    given(userService.getUsersETag()).willReturn("\"1-1-0-a.0\"");
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users").header("If-None-Match", "\"1-1-0-a.0\"");
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isNotModified())
+        .andExpect(content().string(""));
+    Mockito.verify(userService, Mockito.never()).getUsers();
+  }
+
+  // GET: unchanged user profile is answered with 304
+  @Test
+  public void givenMatchingETag_whenGetUser_thenNotModified() throws Exception {
+    // given
+    User user = new User();
+    user.setId(1L);
+    user.setVersion(2L);
+    user.setStatus(UserStatus.ONLINE);
+    given(userService.getUserbyUserID(Mockito.any())).willReturn(user);
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/1").header("If-None-Match", "\"1-2-ONLINE\"");
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isNotModified());
+  }
+
+  // GET: get one keyset page of users
+  @Test
+  public void givenUsers_whenGetUsersPage_thenReturnPageWithCursor() throws Exception {
+    // given
+    UserSummary user = new UserSummary(7L, "Firstname Lastname", "firstname@lastname", UserStatus.OFFLINE);
+
+    given(userService.getUsersAfter(3L, 1)).willReturn(Collections.singletonList(user));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users?after=3&limit=1").contentType(MediaType.APPLICATION_JSON);
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$.users", hasSize(1)))
+        .andExpect(jsonPath("$.users[0].username", is(user.getUsername())))
+        .andExpect(jsonPath("$.next", is(user.getId().intValue())));
+  }
+
+  // GET: the user list as newline delimited JSON
+  @Test
+  public void givenUsers_whenStreamUsers_thenOneLinePerUser() throws Exception {
+    // given
+    Mockito.doAnswer(invocation -> {
+      Consumer<UserSummary> consumer = invocation.getArgument(0);
+      consumer.accept(new UserSummary(1L, "A", "a", UserStatus.ONLINE));
+      consumer.accept(new UserSummary(2L, "B", "b", UserStatus.OFFLINE));
+      return null;
+    }).when(userService).streamUsers(Mockito.any());
+
+    // when
+    MvcResult result = mockMvc.perform(get("/users?stream=true"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    // then
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+        .andExpect(content().string(
+            "{\"id\":1,\"name\":\"A\",\"username\":\"a\",\"status\":\"ONLINE\"}\n"
+                + "{\"id\":2,\"name\":\"B\",\"username\":\"b\",\"status\":\"OFFLINE\"}\n"));
+  }
+
+  // GET: a page and a stream in one request are rejected, neither is served
+  @Test
+  public void givenLimitAndStream_whenGetUsers_thenBadRequest() throws Exception {
+    mockMvc.perform(get("/users?limit=1&stream=true"))
+        .andExpect(status().isBadRequest());
+    Mockito.verifyNoInteractions(userService);
+  }
+
   // POST: Register step; Create new user
   @Test
   public void createUser_validInput_userCreated() throws Exception {
@@ -87,21 +192,46 @@ public class UserControllerTest {
     userPostDTO.setUsername("testUsername");
     userPostDTO.setPassword("testPassword");
 
-    given(userService.createUser(Mockito.any())).willReturn(user);
+    given(userService.createUser(Mockito.any())).willReturn(CompletableFuture.completedFuture(user));
 
     // when/then -> do the request + validate the result
     MockHttpServletRequestBuilder postRequest = post("/users")
         .contentType(MediaType.APPLICATION_JSON)
         .content(asJsonString(userPostDTO));
+    MvcResult result = mockMvc.perform(postRequest)
+        .andExpect(request().asyncStarted())
+        .andReturn();
 
     // then
-    mockMvc.perform(postRequest)
+    mockMvc.perform(asyncDispatch(result))
         .andExpect(status().isCreated())
         .andExpect(jsonPath("$.id", is(user.getId().intValue())))
         .andExpect(jsonPath("$.username", is(user.getUsername())))
         .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
   }
 
+  // POST: Bulk import of users as newline delimited JSON
+  @Test
+  public void importUsers_ndjsonInput_resultPerRow() throws Exception {
+    // given
+    given(userService.importUsers(Mockito.any())).willReturn(Arrays.asList(ImportStatus.CREATED, ImportStatus.DUPLICATE));
+
+    String body = "{\"name\":\"A\",\"username\":\"a\",\"password\":\"p\"}\n"
+        + "{\"name\":\"A\",\"username\":\"a\",\"password\":\"p\"}\n";
+
+    // when
+    MockHttpServletRequestBuilder postRequest = post("/users/bulk")
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .content(body);
+
+    // then
+    mockMvc.perform(postRequest)
+        .andExpect(status().isOk())
+        .andExpect(content().string(
+            "{\"row\":0,\"id\":null,\"username\":\"a\",\"status\":\"CREATED\"}\n"
+                + "{\"row\":1,\"id\":null,\"username\":\"a\",\"status\":\"DUPLICATE\"}\n"));
+  }
+
   // POST: Test for Login step
   @Test
   public void givenUser_validlogin_thenReturnUser() throws Exception {
@@ -120,20 +250,47 @@ public class UserControllerTest {
       loginUserPostDTO.setUsername("rupal.saxena.rs@gmail.com");
       loginUserPostDTO.setPassword("rupal");
 
-      given(userService.loginCredentials(Mockito.any())).willReturn(user);
+      given(userService.loginCredentials(Mockito.any()))
+              .willReturn(CompletableFuture.completedFuture(new UserSession(user, "sessionToken")));
 
       // when
       MockHttpServletRequestBuilder postRequest = post("/login")
               .contentType(MediaType.APPLICATION_JSON)
               .content(asJsonString(loginUserPostDTO));
+      MvcResult result = mockMvc.perform(postRequest)
+              .andExpect(request().asyncStarted())
+              .andReturn();
 
       // then
-      mockMvc.perform(postRequest)
+      mockMvc.perform(asyncDispatch(result))
               .andExpect(status().isOk())
               .andExpect(jsonPath("$.id", is(user.getId().intValue())))
               .andExpect(jsonPath("$.name", is(user.getName())))
               .andExpect(jsonPath("$.username", is(user.getUsername())))
-              .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
+              .andExpect(jsonPath("$.status", is(user.getStatus().toString())))
+              .andExpect(jsonPath("$.token", is("sessionToken")));
+  }
+
+  // POST: login attempts over the limit are refused before the credentials are checked
+  @Test
+  public void givenThrottledLogin_thenTooManyRequests() throws Exception {
+      // given
+      Mockito.doThrow(new LoginThrottledException(20)).when(loginRateLimiter).acquire(Mockito.eq("testUsername"), Mockito.any());
+
+      LoginUserPostDTO loginUserPostDTO = new LoginUserPostDTO();
+      loginUserPostDTO.setUsername("testUsername");
+      loginUserPostDTO.setPassword("testPassword");
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/login")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(asJsonString(loginUserPostDTO));
+
+      // then
+      mockMvc.perform(postRequest)
+              .andExpect(status().isTooManyRequests())
+              .andExpect(header().string("Retry-After", "20"));
+      Mockito.verify(userService, Mockito.never()).loginCredentials(Mockito.any());
   }
 
   // GET: Retrieve user profile from user id
@@ -166,6 +323,165 @@ public class UserControllerTest {
               //.andExpect(jsonPath("$.birthday", is(user.getBirthday().toString())));
   }
 
+  // GET: only the selected fields of the user list
+  @Test
+  public void givenFields_whenGetUsers_thenOnlySelectedFields() throws Exception {
+      // given
+      Map<String, Object> user = new LinkedHashMap<>();
+      user.put("id", 1L);
+      user.put("status", UserStatus.ONLINE);
+      given(userService.getUsersETag()).willReturn("\"1-1-0-a.0\"");
+      given(userService.getUsers(Arrays.asList("id", "status"))).willReturn(Collections.singletonList(user));
+
+      // when
+      MockHttpServletRequestBuilder getRequest = get("/users?fields=id,status");
+
+      // then
+      mockMvc.perform(getRequest)
+              .andExpect(status().isOk())
+              .andExpect(header().string("ETag", "\"1-1-0-a.0-id.status\""))
+              .andExpect(jsonPath("$[0].id", is(1)))
+              .andExpect(jsonPath("$[0].status", is("ONLINE")))
+              .andExpect(jsonPath("$[0].name").doesNotExist());
+      Mockito.verify(userService, Mockito.never()).getUsers();
+  }
+
+  // GET: a field that cannot be selected is rejected before anything is loaded
+  @Test
+  public void givenUnknownField_whenGetUsers_thenBadRequest() throws Exception {
+      given(userService.getUsersETag()).willReturn("\"1-1-0-a.0\"");
+
+      mockMvc.perform(get("/users?fields=id,password"))
+              .andExpect(status().isBadRequest());
+      Mockito.verify(userService, Mockito.never()).getUsers(Mockito.any());
+  }
+
+  // GET: only the selected fields of a user profile
+  @Test
+  public void givenFields_whenGetUser_thenOnlySelectedFields() throws Exception {
+      User user = new User();
+      user.setId(1L);
+      user.setVersion(2L);
+      user.setUsername("EmmaIsBest");
+      user.setStatus(UserStatus.ONLINE);
+      user.setCreation_date(new Date());
+      given(userService.getUserbyUserID(Mockito.any())).willReturn(user);
+
+      mockMvc.perform(get("/users/1?fields=username,status"))
+              .andExpect(status().isOk())
+              .andExpect(header().string("ETag", "\"1-2-ONLINE-username.status\""))
+              .andExpect(jsonPath("$.username", is("EmmaIsBest")))
+              .andExpect(jsonPath("$.status", is("ONLINE")))
+              .andExpect(jsonPath("$.id").doesNotExist())
+              .andExpect(jsonPath("$.creation_date").doesNotExist());
+  }
+
+  // GET: a user profile in CBOR for service-to-service consumers
+  @Test
+  public void givenAcceptCbor_whenGetUser_thenCborBody() throws Exception {
+      User user = new User();
+      user.setId(1L);
+      user.setVersion(2L);
+      user.setUsername("EmmaIsBest");
+      user.setStatus(UserStatus.ONLINE);
+      user.setCreation_date(new Date(1650000000000L));
+      given(userService.getUserbyUserID(Mockito.any())).willReturn(user);
+
+      byte[] body = mockMvc.perform(get("/users/1").accept(MediaType.APPLICATION_CBOR))
+              .andExpect(status().isOk())
+              .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+              .andExpect(header().string("Vary", "Accept"))
+              .andExpect(header().string("ETag", "\"1-2-ONLINE-cbor\""))
+              .andReturn().getResponse().getContentAsByteArray();
+
+      JsonNode userNode = new ObjectMapper(new CBORFactory()).readTree(body);
+      assertEquals("EmmaIsBest", userNode.get("username").asText());
+      assertEquals(1650000000000L, userNode.get("creation_date").asLong());
+  }
+
+  // GET: the ETag of the JSON representation does not match the CBOR one
+  @Test
+  public void givenJsonETag_whenGetUserAsCbor_thenFullResponse() throws Exception {
+      User user = new User();
+      user.setId(1L);
+      user.setVersion(2L);
+      user.setUsername("EmmaIsBest");
+      user.setStatus(UserStatus.ONLINE);
+      given(userService.getUserbyUserID(Mockito.any())).willReturn(user);
+
+      mockMvc.perform(get("/users/1").accept(MediaType.APPLICATION_JSON))
+              .andExpect(status().isOk())
+              .andExpect(header().string("ETag", "\"1-2-ONLINE\""));
+
+      mockMvc.perform(get("/users/1").accept(MediaType.APPLICATION_CBOR).header("If-None-Match", "\"1-2-ONLINE\""))
+              .andExpect(status().isOk())
+              .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+              .andExpect(header().string("ETag", "\"1-2-ONLINE-cbor\""));
+  }
+
+  // GET: the user list in Smile gets an ETag of its own
+  @Test
+  public void givenAcceptSmile_whenGetUsers_thenSmileETag() throws Exception {
+      given(userService.getUsersETag()).willReturn("\"1-1-0-a.0\"");
+      given(userService.getUsers()).willReturn(Collections.emptyList());
+
+      mockMvc.perform(get("/users").accept(new MediaType("application", "x-jackson-smile")))
+              .andExpect(status().isOk())
+              .andExpect(content().contentType(new MediaType("application", "x-jackson-smile")))
+              .andExpect(header().string("ETag", "\"1-1-0-a.0-x-jackson-smile\""));
+  }
+
+  // GET: many profiles in one request, in the order of the ids, missing ids inline
+  @Test
+  public void givenIds_whenGetUsersBatch_thenUsersInRequestOrder() throws Exception {
+      // given
+      User first = new User();
+      first.setId(3L);
+      first.setUsername("third");
+      first.setStatus(UserStatus.ONLINE);
+      User second = new User();
+      second.setId(1L);
+      second.setUsername("first");
+      second.setStatus(UserStatus.OFFLINE);
+      given(userService.getUsersByIds(Arrays.asList(3L, 2L, 1L))).willReturn(Arrays.asList(first, null, second));
+
+      // when
+      MockHttpServletRequestBuilder getRequest = get("/users/batch?ids=3,2,1");
+
+      // then
+      mockMvc.perform(getRequest)
+              .andExpect(status().isOk())
+              .andExpect(jsonPath("$.users", hasSize(3)))
+              .andExpect(jsonPath("$.users[0].id", is(3)))
+              .andExpect(jsonPath("$.users[0].username", is("third")))
+              .andExpect(jsonPath("$.users[1]").value(nullValue()))
+              .andExpect(jsonPath("$.users[2].id", is(1)))
+              .andExpect(jsonPath("$.missing", hasSize(1)))
+              .andExpect(jsonPath("$.missing[0]", is(2)));
+  }
+
+  // POST: the same batch with the ids in the body
+  @Test
+  public void givenIdsInBody_whenPostUsersBatch_thenUsersInRequestOrder() throws Exception {
+      // given
+      User user = new User();
+      user.setId(1L);
+      user.setUsername("first");
+      user.setStatus(UserStatus.ONLINE);
+      given(userService.getUsersByIds(Arrays.asList(1L, 4L))).willReturn(Arrays.asList(user, null));
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/users/batch")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("[1,4]");
+
+      // then
+      mockMvc.perform(postRequest)
+              .andExpect(status().isOk())
+              .andExpect(jsonPath("$.users[0].username", is("first")))
+              .andExpect(jsonPath("$.missing[0]", is(4)));
+  }
+
   // PUT: Test for Edit/Update User Profile
   @Test
   public void givenUser_whenEdit_ReturnEdited() throws Exception {
@@ -237,6 +553,65 @@ public class UserControllerTest {
             .andExpect(status().isConflict());
     }
 
+    // POST: concurrent registration of the same username fails on the unique constraint
+    @Test
+    public void createUser_uniqueConstraintViolated_conflict() throws Exception {
+      // given
+      UserPostDTO userPostDTO = new UserPostDTO();
+      userPostDTO.setName("Test User");
+      userPostDTO.setUsername("testUsername");
+      userPostDTO.setPassword("testPassword");
+      given(userService.createUser(Mockito.any())).willReturn(CompletableFuture.failedFuture(
+              new DataIntegrityViolationException("could not execute statement", new SQLException("Unique index violation", "23505"))));
+
+      // when
+      MockHttpServletRequestBuilder postRequest = post("/users")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(asJsonString(userPostDTO));
+      MvcResult result = mockMvc.perform(postRequest)
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+      // then
+      mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isConflict());
+    }
+
+    // GET: typeahead search
+    @Test
+    public void givenQuery_whenSearchUsers_thenReturnJsonArray() throws Exception {
+      // given
+      User user = new User();
+      user.setId(1L);
+      user.setName("Firstname Lastname");
+      user.setUsername("firstname@lastname");
+      user.setStatus(UserStatus.OFFLINE);
+      given(userService.searchUsers("first", 5)).willReturn(Collections.singletonList(user));
+
+      // when
+      MockHttpServletRequestBuilder getRequest = get("/users/search").param("q", "first").param("limit", "5");
+
+      // then
+      mockMvc.perform(getRequest).andExpect(status().isOk())
+            .andExpect(jsonPath("$", hasSize(1)))
+            .andExpect(jsonPath("$[0].username", is(user.getUsername())));
+    }
+
+    // GET: availability of a username
+    @Test
+    public void givenUsername_whenGetAvailability_thenReturnAvailability() throws Exception {
+      // given
+      given(userService.isUsernameAvailable("testUsername")).willReturn(false);
+
+      // when
+      MockHttpServletRequestBuilder getRequest = get("/users/availability").param("username", "testUsername");
+
+      // then
+      mockMvc.perform(getRequest).andExpect(status().isOk())
+            .andExpect(jsonPath("$.username", is("testUsername")))
+            .andExpect(jsonPath("$.available", is(false)));
+    }
+
     // GET: user with userId was not found
     @Test
     public void givenId_IdNotFound_throwexception() throws Exception {
@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.service.UserExportService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * UserExportControllerTest
+ * Tests the streamed export in both formats with a mocked UserExportService.
+ */
+@WebMvcTest(UserExportController.class)
+public class UserExportControllerTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private UserExportService userExportService;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("last, first");
+    user.setStatus(UserStatus.ONLINE);
+
+    Mockito.doAnswer(invocation -> {
+      ((Consumer<User>) invocation.getArgument(0)).accept(user);
+      return null;
+    }).when(userExportService).exportUsers(Mockito.any());
+  }
+
+  // GET: export as CSV
+  @Test
+  public void exportUsers_csv_headerAndQuotedRows() throws Exception {
+    MvcResult result = mockMvc.perform(get("/users/export?format=csv"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Content-Disposition", "attachment; filename=\"users.csv\""))
+        .andExpect(content().string(UserExportController.CSV_HEADER + "\n1,\"last, first\",ONLINE,,\n"));
+  }
+
+  // GET: export as newline delimited JSON
+  @Test
+  public void exportUsers_ndjson_oneObjectPerLine() throws Exception {
+    MvcResult result = mockMvc.perform(get("/users/export"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().string(
+            "{\"id\":1,\"username\":\"last, first\",\"status\":\"ONLINE\",\"creation_date\":null,\"birthday\":null}\n"));
+  }
+
+  // GET: gzip refused with q=0 is not used
+  @Test
+  public void exportUsers_gzipQualityZero_notCompressed() throws Exception {
+    MvcResult result = mockMvc.perform(get("/users/export").header("Accept-Encoding", "gzip;q=0, identity"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist("Content-Encoding"));
+  }
+
+  // GET: gzip accepted with a quality above 0 compresses the export
+  @Test
+  public void exportUsers_gzipWithQuality_compressed() throws Exception {
+    MvcResult result = mockMvc.perform(get("/users/export").header("Accept-Encoding", "deflate, gzip;q=0.5"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(header().string("Content-Encoding", "gzip"));
+  }
+
+  @Test
+  public void acceptsGzip_codingsAndQualities() {
+    assertTrue(UserExportController.acceptsGzip("gzip"));
+    assertTrue(UserExportController.acceptsGzip("br;q=1.0, GZIP;q=0.1"));
+    assertTrue(UserExportController.acceptsGzip("*"));
+    assertFalse(UserExportController.acceptsGzip("gzip;q=0"));
+    assertFalse(UserExportController.acceptsGzip("*;q=0.5, gzip;q=0.000"));
+    assertFalse(UserExportController.acceptsGzip("x-gzip-like, deflate"));
+    assertFalse(UserExportController.acceptsGzip(null));
+  }
+
+  // GET: unknown format
+  @Test
+  public void exportUsers_unknownFormat_badRequest() throws Exception {
+    mockMvc.perform(get("/users/export?format=xml"))
+        .andExpect(status().isBadRequest());
+  }
+}
@@ -0,0 +1,154 @@
+package ch.uzh.ifi.hase.soprafs22.events;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserEventBroadcasterTest {
+
+  private UserEventBroadcaster broadcaster;
+
+  @BeforeEach
+  public void setup() {
+    // history of 3 events, buffers of 2 users; drains and heartbeats never run during a test
+    broadcaster = new UserEventBroadcaster(3, 2, 60_000, 3_600, 1, 1);
+  }
+
+  @AfterEach
+  public void teardown() {
+    broadcaster.shutdown();
+  }
+
+  @Test
+  public void onUserChanged_rapidFlips_coalescedToLatestState() {
+    UserEventSubscription subscription = broadcaster.register(new SseEmitter(), null);
+
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(1L, UserStatus.ONLINE));
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(2L, UserStatus.ONLINE));
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(1L, UserStatus.OFFLINE));
+
+    List<UserChangeEvent> events = subscription.takePending();
+    assertEquals(2, events.size());
+    assertEquals(2L, events.get(0).getId());
+    assertEquals(1L, events.get(1).getId());
+    assertEquals(UserStatus.OFFLINE, events.get(1).getStatus());
+    assertEquals(3L, events.get(1).getSequence());
+  }
+
+  @Test
+  public void onUserChanged_statusAndProfile_mergedIntoOneDelta() {
+    UserEventSubscription subscription = broadcaster.register(new SseEmitter(), null);
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("renamed");
+
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(1L, UserStatus.ONLINE));
+    broadcaster.onUserChanged(UserChangeEvent.profileChanged(user));
+
+    List<UserChangeEvent> events = subscription.takePending();
+    assertEquals(1, events.size());
+    assertEquals("renamed", events.get(0).getUsername());
+    assertEquals(UserStatus.ONLINE, events.get(0).getStatus());
+  }
+
+  @Test
+  public void onUserChanged_bufferFull_subscriberReset() {
+    UserEventSubscription subscription = broadcaster.register(new SseEmitter(), null);
+
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(1L, UserStatus.ONLINE));
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(2L, UserStatus.ONLINE));
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(3L, UserStatus.ONLINE));
+
+    assertNull(subscription.takePending());
+    // the reset has been consumed, the next event is delivered again
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(4L, UserStatus.ONLINE));
+    assertEquals(1, subscription.takePending().size());
+  }
+
+  @Test
+  public void register_lastEventIdInHistory_replaysMissedEvents() {
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(1L, UserStatus.ONLINE));
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(2L, UserStatus.ONLINE));
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(3L, UserStatus.ONLINE));
+
+    UserEventSubscription subscription = broadcaster.register(new SseEmitter(), broadcaster.eventId(2));
+
+    List<UserChangeEvent> events = subscription.takePending();
+    assertEquals(1, events.size());
+    assertEquals(3L, events.get(0).getId());
+  }
+
+  @Test
+  public void register_lastEventIdUpToDate_nothingToReplay() {
+    broadcaster.onUserChanged(UserChangeEvent.statusChanged(1L, UserStatus.ONLINE));
+
+    UserEventSubscription subscription = broadcaster.register(new SseEmitter(), broadcaster.eventId(1));
+
+    assertTrue(subscription.takePending().isEmpty());
+  }
+
+  @Test
+  public void register_lastEventIdOutOfHistory_subscriberReset() {
+    for (long id = 1; id <= 5; id++) {
+      broadcaster.onUserChanged(UserChangeEvent.statusChanged(id, UserStatus.ONLINE));
+    }
+
+    UserEventSubscription subscription = broadcaster.register(new SseEmitter(), broadcaster.eventId(1));
+
+    assertNull(subscription.takePending());
+  }
+
+  @Test
+  public void register_lastEventIdOfOtherEpoch_subscriberReset() {
+    UserEventSubscription subscription = broadcaster.register(new SseEmitter(), "0-1");
+
+    assertNull(subscription.takePending());
+  }
+
+  @Test
+  public void onUserChanged_slowSubscriber_othersStillServed() throws Exception {
+    // no coalescing delay and a single scheduler thread
+    UserEventBroadcaster sendingBroadcaster = new UserEventBroadcaster(3, 2, 0, 3_600, 1, 1);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch released = new CountDownLatch(1);
+    CountDownLatch delivered = new CountDownLatch(1);
+    try {
+      sendingBroadcaster.register(new SseEmitter() {
+        @Override
+        public void send(SseEventBuilder builder) {
+          // a client that stops reading, the write does not return
+          blocked.countDown();
+          try {
+            released.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }, null);
+      sendingBroadcaster.onUserChanged(UserChangeEvent.statusChanged(1L, UserStatus.ONLINE));
+      assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+      sendingBroadcaster.register(new SseEmitter() {
+        @Override
+        public void send(SseEventBuilder builder) {
+          delivered.countDown();
+        }
+      }, null);
+      sendingBroadcaster.onUserChanged(UserChangeEvent.statusChanged(2L, UserStatus.ONLINE));
+
+      assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    } finally {
+      released.countDown();
+      sendingBroadcaster.shutdown();
+    }
+  }
+}
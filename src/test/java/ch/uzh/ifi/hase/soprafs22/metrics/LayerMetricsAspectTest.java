@@ -0,0 +1,47 @@
+package ch.uzh.ifi.hase.soprafs22.metrics;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LayerMetricsAspectTest {
+
+  private MeterRegistry registry;
+
+  private UserRepository repositoryMock;
+
+  private UserRepository userRepository;
+
+  @BeforeEach
+  public void setup() {
+    registry = new SimpleMeterRegistry();
+    repositoryMock = Mockito.mock(UserRepository.class);
+
+    AspectJProxyFactory proxyFactory = new AspectJProxyFactory(repositoryMock);
+    proxyFactory.addInterface(UserRepository.class);
+    proxyFactory.addAspect(new LayerMetricsAspect(registry));
+    userRepository = proxyFactory.getProxy();
+  }
+
+  @Test
+  public void repositoryQuery_timedAndRowsCounted() {
+    Mockito.when(repositoryMock.findAllByStatus(UserStatus.ONLINE)).thenReturn(Arrays.asList(new User(), new User()));
+
+    userRepository.findAllByStatus(UserStatus.ONLINE);
+    userRepository.findByUsername("unknown");
+
+    assertEquals(1, registry.get("users.repository").tag("method", "findAllByStatus").timer().count());
+    assertEquals(2, registry.get("users.repository.rows").tag("method", "findAllByStatus").summary().totalAmount());
+    assertEquals(0, registry.get("users.repository.rows").tag("method", "findByUsername").summary().totalAmount());
+  }
+}
@@ -1,16 +1,23 @@
 package ch.uzh.ifi.hase.soprafs22.repository;
 
+import ch.uzh.ifi.hase.soprafs22.constant.UserField;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.hibernate.Session;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @DataJpaTest
 public class UserRepositoryIntegrationTest {
@@ -48,4 +55,73 @@ public class UserRepositoryIntegrationTest {
     assertEquals(found.getPassword(), user.getPassword());
     assertEquals(found.getCreation_date(), user.getCreation_date());
   }
+
+  @Test
+  public void findAllSummaries_onlyListColumns_notManaged() {
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setPassword("rsa");
+    user.setToken("1");
+    user.setCreation_date(new Date());
+
+    entityManager.persist(user);
+    entityManager.flush();
+    entityManager.clear();
+
+    // when
+    List<UserSummary> summaries = userRepository.findAllSummaries();
+
+    // then
+    assertEquals(1, summaries.size());
+    assertEquals(user.getId(), summaries.get(0).getId());
+    assertEquals(user.getName(), summaries.get(0).getName());
+    assertEquals(user.getUsername(), summaries.get(0).getUsername());
+    assertEquals(user.getStatus(), summaries.get(0).getStatus());
+    assertEquals(0, entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount());
+  }
+
+  @Test
+  public void findAllFields_selectedColumns_notManaged() {
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setPassword("rsa");
+    user.setToken("1");
+    user.setCreation_date(new Date());
+
+    entityManager.persist(user);
+    entityManager.flush();
+    entityManager.clear();
+
+    // when
+    List<Map<String, Object>> users = userRepository.findAllFields(Arrays.asList(UserField.STATUS, UserField.USERNAME));
+
+    // then -> the requested order, the id is read for the presence and comes last
+    assertEquals(1, users.size());
+    assertEquals(Arrays.asList("status", "username", "id"), new ArrayList<>(users.get(0).keySet()));
+    assertEquals(user.getId(), users.get(0).get("id"));
+    assertEquals(user.getStatus(), users.get(0).get("status"));
+    assertEquals(user.getUsername(), users.get(0).get("username"));
+    assertEquals(0, entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount());
+  }
+
+  @Test
+  public void findAllFields_idRequested_keptInRequestedOrder() {
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setPassword("rsa");
+    user.setToken("1");
+    user.setCreation_date(new Date());
+    entityManager.persist(user);
+    entityManager.flush();
+
+    List<Map<String, Object>> users = userRepository.findAllFields(Arrays.asList(UserField.STATUS, UserField.ID, UserField.NAME));
+
+    assertEquals(Arrays.asList("status", "id", "name"), new ArrayList<>(users.get(0).keySet()));
+  }
 }
@@ -0,0 +1,101 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the repository against the postgres profile, on an embedded PostgreSQL
+ * server standing in for the external database.
+ */
+@DataJpaTest
+@ActiveProfiles("postgres")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+public class UserRepositoryPostgresIntegrationTest {
+
+  private static EmbeddedPostgres postgres;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @DynamicPropertySource
+  static void postgresProperties(DynamicPropertyRegistry registry) throws IOException {
+    if (postgres == null) {
+      postgres = EmbeddedPostgres.start();
+    }
+    registry.add("spring.datasource.url", () -> postgres.getJdbcUrl("postgres", "postgres"));
+    registry.add("spring.datasource.username", () -> "postgres");
+    registry.add("spring.datasource.password", () -> "");
+  }
+
+  @AfterAll
+  static void stopPostgres() throws IOException {
+    postgres.close();
+  }
+
+  @Test
+  public void saveAll_pooledSequence_oneRoundTripPerBlock() {
+    User first = userRepository.saveAndFlush(newUser("first"));
+    // the pooled optimizer hands out ids up to the last value of the sequence before it calls it again
+    long before = jdbcTemplate.queryForObject("SELECT last_value FROM user_seq", Long.class);
+    long remaining = before - first.getId();
+
+    List<User> users = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      users.add(newUser("user" + i));
+    }
+
+    // when
+    userRepository.saveAll(users);
+    userRepository.flush();
+
+    // then -> one sequence call (increment 50) per block of 50 ids instead of one per row;
+    // with an allocation size of 1 the sequence would advance by 120 in steps of 1
+    long after = jdbcTemplate.queryForObject("SELECT last_value FROM user_seq", Long.class);
+    long expectedCalls = (users.size() - remaining + 49) / 50;
+    assertEquals(expectedCalls * 50, after - before);
+    assertEquals(121, userRepository.count());
+  }
+
+  @Test
+  public void presenceUpdate_quotedTable_success() {
+    // the statement of the PresenceTracker, "USER" is a reserved word in PostgreSQL as well
+    User user = userRepository.saveAndFlush(newUser("presence"));
+
+    int updated = jdbcTemplate.update("UPDATE \"USER\" SET status = ? WHERE id = ?", UserStatus.ONLINE.ordinal(), user.getId());
+
+    assertEquals(1, updated);
+    assertEquals(UserStatus.ONLINE.ordinal(),
+        jdbcTemplate.queryForObject("SELECT status FROM \"USER\" WHERE id = ?", Integer.class, user.getId()));
+  }
+
+  private static User newUser(String username) {
+    User user = new User();
+    user.setName(username);
+    user.setUsername(username);
+    user.setPassword("password");
+    user.setToken(username + "-token");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setCreation_date(new Date());
+    return user;
+  }
+}
@@ -0,0 +1,80 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.exceptions.LoginThrottledException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoginRateLimiterTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  private LoginRateLimiter loginRateLimiter;
+
+  @BeforeEach
+  public void setup() {
+    // 3 attempts per username, refilled one every 20 seconds; 5 attempts per address, one per 10 seconds
+    loginRateLimiter = new LoginRateLimiter(3, 3, 5, 6, now::get);
+  }
+
+  @Test
+  public void acquire_burstOfOneUsername_throttledAfterCapacity() {
+    for (int i = 0; i < 3; i++) {
+      loginRateLimiter.acquire("alice", "10.0.0." + i);
+    }
+
+    LoginThrottledException exception = assertThrows(LoginThrottledException.class,
+        () -> loginRateLimiter.acquire("alice", "10.0.0.9"));
+    assertEquals(20, exception.getRetryAfterSeconds());
+    assertEquals("20", exception.getResponseHeaders().getFirst("Retry-After"));
+
+    // other usernames are not affected
+    loginRateLimiter.acquire("bob", "10.0.0.9");
+  }
+
+  @Test
+  public void acquire_afterRefill_admittedAgain() {
+    for (int i = 0; i < 3; i++) {
+      loginRateLimiter.acquire("alice", "10.0.0." + i);
+    }
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(20));
+
+    loginRateLimiter.acquire("alice", "10.0.0.3");
+    assertThrows(LoginThrottledException.class, () -> loginRateLimiter.acquire("alice", "10.0.0.4"));
+  }
+
+  @Test
+  public void acquire_burstFromOneAddress_throttledAcrossUsernames() {
+    for (int i = 0; i < 5; i++) {
+      loginRateLimiter.acquire("user" + i, "10.0.0.1");
+    }
+
+    LoginThrottledException exception = assertThrows(LoginThrottledException.class,
+        () -> loginRateLimiter.acquire("user5", "10.0.0.1"));
+    assertEquals(10, exception.getRetryAfterSeconds());
+  }
+
+  @Test
+  public void evictIdle_refilledBuckets_removed() {
+    loginRateLimiter.acquire("alice", "10.0.0.1");
+    loginRateLimiter.acquire("bob", "10.0.0.2");
+    assertEquals(4, loginRateLimiter.size());
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(15));
+    loginRateLimiter.evictIdle();
+
+    // the address buckets are full again after 10 seconds, the username buckets only after 20
+    assertEquals(2, loginRateLimiter.size());
+  }
+
+  @Test
+  public void constructor_zeroLimits_rejected() {
+    assertThrows(IllegalArgumentException.class, () -> new LoginRateLimiter(3, 0, 5, 6, now::get));
+    assertThrows(IllegalArgumentException.class, () -> new LoginRateLimiter(3, 3, 0, 6, now::get));
+  }
+}
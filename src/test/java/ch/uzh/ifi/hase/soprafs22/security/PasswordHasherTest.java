@@ -0,0 +1,62 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+  private PasswordHasher passwordHasher;
+
+  @BeforeEach
+  public void setup() {
+    passwordHasher = new PasswordHasher(1000, 1, 4);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    passwordHasher.shutdown();
+  }
+
+  @Test
+  public void hash_password_matchesOnlyOriginal() {
+    String encoded = passwordHasher.hash("testPassword").join();
+
+    assertNotEquals("testPassword", encoded);
+    assertTrue(passwordHasher.matches("testPassword", encoded).join());
+    assertFalse(passwordHasher.matches("otherPassword", encoded).join());
+    assertFalse(passwordHasher.needsRehash(encoded));
+  }
+
+  @Test
+  public void needsRehash_otherWorkFactorOrPlaintext_true() {
+    PasswordHasher weakerHasher = new PasswordHasher(500, 1, 4);
+    String encoded = weakerHasher.hash("testPassword").join();
+    weakerHasher.shutdown();
+
+    assertTrue(passwordHasher.matches("testPassword", encoded).join());
+    assertTrue(passwordHasher.needsRehash(encoded));
+    assertTrue(passwordHasher.needsRehash("testPassword"));
+    assertTrue(passwordHasher.matches("testPassword", "testPassword").join());
+  }
+
+  @Test
+  public void matches_duringImport_notRejected() {
+    String encoded = passwordHasher.hash("testPassword").join();
+    List<String> passwords = Collections.nCopies(200, "importedPassword");
+
+    CompletableFuture<List<String>> imported = CompletableFuture.supplyAsync(() -> passwordHasher.hashAll(passwords));
+    // the queue holds 4 tasks, without a share for the import these logins would be rejected
+    for (int i = 0; i < 20; i++) {
+      assertTrue(passwordHasher.matches("testPassword", encoded).join());
+    }
+
+    assertEquals(200, imported.join().size());
+  }
+}
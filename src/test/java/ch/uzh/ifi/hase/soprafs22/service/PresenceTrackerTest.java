@@ -0,0 +1,63 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceTrackerTest {
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @InjectMocks
+  private PresenceTracker presenceTracker;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @Test
+  public void applyTo_trackedUser_overridesPersistedStatus() {
+    User user = new User();
+    user.setId(1L);
+    user.setStatus(UserStatus.OFFLINE);
+
+    presenceTracker.setStatus(1L, UserStatus.ONLINE);
+    presenceTracker.applyTo(user);
+
+    assertEquals(UserStatus.ONLINE, user.getStatus());
+    assertEquals(UserStatus.OFFLINE, presenceTracker.statusOf(2L, UserStatus.OFFLINE));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void flush_pendingChanges_writtenInOneBatch() {
+    presenceTracker.setStatus(1L, UserStatus.ONLINE);
+    presenceTracker.setStatus(1L, UserStatus.OFFLINE);
+    presenceTracker.setStatus(2L, UserStatus.ONLINE);
+    presenceTracker.register(3L, UserStatus.ONLINE);
+
+    presenceTracker.flush();
+
+    ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+    Mockito.verify(jdbcTemplate, Mockito.times(1)).batchUpdate(Mockito.eq(PresenceTracker.UPDATE_STATUS_SQL), batch.capture());
+    assertEquals(2, batch.getValue().size());
+    assertEquals(0, presenceTracker.pending());
+
+    // nothing left to write
+    presenceTracker.flush();
+    Mockito.verifyNoMoreInteractions(jdbcTemplate);
+  }
+}
@@ -0,0 +1,153 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.cache.UserCache;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.ReactiveUserRepository;
+import ch.uzh.ifi.hase.soprafs22.security.PasswordHasher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReactiveUserServiceTest {
+
+  @Mock
+  private ReactiveUserRepository userRepository;
+
+  @Mock
+  private SessionStore sessionStore;
+
+  @Mock
+  private PresenceTracker presenceTracker;
+
+  @Mock
+  private UserCache userCache;
+
+  @Mock
+  private PasswordHasher passwordHasher;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  @Mock
+  private UsernameFilter usernameFilter;
+
+  @Mock
+  private UserSearchIndex userSearchIndex;
+
+  @InjectMocks
+  private ReactiveUserService userService;
+
+  private User testUser;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+
+    // given
+    testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("testPassword");
+
+    Mockito.when(userRepository.insert(Mockito.any())).thenAnswer(invocation -> {
+      User user = invocation.getArgument(0);
+      user.setId(1L);
+      return Mono.just(user);
+    });
+    Mockito.when(passwordHasher.hash(Mockito.any())).thenReturn(CompletableFuture.completedFuture("hashedPassword"));
+  }
+
+  @Test
+  public void createUser_validInputs_success() {
+    StepVerifier.create(userService.createUser(testUser))
+        .assertNext(createdUser -> {
+          assertEquals(1L, createdUser.getId());
+          assertEquals("hashedPassword", createdUser.getPassword());
+          assertNotNull(createdUser.getToken());
+          assertEquals(UserStatus.ONLINE, createdUser.getStatus());
+        })
+        .verifyComplete();
+
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+    Mockito.verify(sessionStore, Mockito.times(1)).keepOnline(1L);
+    Mockito.verify(sessionStore, Mockito.never()).open(Mockito.any());
+    Mockito.verify(usernameFilter, Mockito.times(1)).put("testUsername");
+  }
+
+  @Test
+  public void createUser_duplicateInputs_conflict() {
+    Mockito.when(usernameFilter.mightContain(Mockito.any())).thenReturn(true);
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(Mono.just(new User()));
+
+    StepVerifier.create(userService.createUser(testUser))
+        .expectErrorSatisfies(e -> assertEquals(HttpStatus.CONFLICT, ((ResponseStatusException) e).getStatus()))
+        .verify();
+    Mockito.verify(userRepository, Mockito.never()).insert(Mockito.any());
+  }
+
+  @Test
+  public void createUser_hasherSaturated_serviceUnavailable() {
+    Mockito.when(passwordHasher.hash(Mockito.any())).thenThrow(new RejectedExecutionException());
+
+    StepVerifier.create(userService.createUser(testUser))
+        .expectErrorSatisfies(e -> assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ((ResponseStatusException) e).getStatus()))
+        .verify();
+  }
+
+  @Test
+  public void loginCredentials_wrongPassword_notAcceptable() {
+    User storedUser = new User();
+    storedUser.setId(1L);
+    storedUser.setUsername("testUsername");
+    storedUser.setPassword("otherPassword");
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(Mono.just(storedUser));
+    Mockito.when(passwordHasher.matches(Mockito.any(), Mockito.any())).thenReturn(CompletableFuture.completedFuture(false));
+
+    StepVerifier.create(userService.loginCredentials(testUser))
+        .expectErrorSatisfies(e -> assertEquals(HttpStatus.NOT_ACCEPTABLE, ((ResponseStatusException) e).getStatus()))
+        .verify();
+    Mockito.verifyNoInteractions(sessionStore);
+  }
+
+  @Test
+  public void editUserbyUserID_concurrentEdit_conflict() {
+    User storedUser = new User();
+    storedUser.setId(1L);
+    storedUser.setUsername("oldUsername");
+    storedUser.setVersion(3L);
+    Mockito.when(userRepository.findById(1L)).thenReturn(Mono.just(storedUser));
+    Mockito.when(userRepository.updateProfile(storedUser)).thenReturn(Mono.just(false));
+
+    User edit = new User();
+    edit.setId(1L);
+    edit.setUsername("newUsername");
+
+    StepVerifier.create(userService.editUserbyUserID(edit))
+        .expectErrorSatisfies(e -> assertEquals(HttpStatus.CONFLICT, ((ResponseStatusException) e).getStatus()))
+        .verify();
+    Mockito.verifyNoInteractions(eventPublisher);
+  }
+
+  @Test
+  public void logoutUserbyUserID_unknownUser_notFound() {
+    Mockito.when(userRepository.findById(1L)).thenReturn(Mono.empty());
+
+    StepVerifier.create(userService.logoutUserbyUserID(1L))
+        .expectErrorSatisfies(e -> assertEquals(HttpStatus.NOT_FOUND, ((ResponseStatusException) e).getStatus()))
+        .verify();
+  }
+}
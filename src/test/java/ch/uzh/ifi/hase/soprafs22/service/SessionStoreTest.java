@@ -0,0 +1,168 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.events.UserChangeEvent;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionStoreTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @Mock
+  private PresenceTracker presenceTracker;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  private final AtomicLong now = new AtomicLong();
+
+  private SessionStore sessionStore;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+
+    // sessions expire after 60 seconds without use, the wheel turns once per second
+    sessionStore = new SessionStore(userRepository, presenceTracker, eventPublisher,
+        TimeUnit.SECONDS.toNanos(60), TimeUnit.SECONDS.toNanos(1), 2, now::get);
+    Mockito.when(presenceTracker.setStatus(Mockito.any(), Mockito.eq(UserStatus.OFFLINE))).thenReturn(true);
+  }
+
+  @Test
+  public void open_everyLogin_ownToken() {
+    String first = sessionStore.open(1L);
+    String second = sessionStore.open(1L);
+
+    assertNotEquals(first, second);
+    assertEquals(1L, sessionStore.touch(first));
+    assertEquals(1L, sessionStore.touch(second));
+    assertNull(sessionStore.touch("unknown"));
+  }
+
+  @Test
+  public void sweep_idleSession_expiredAndUserOffline() {
+    String token = sessionStore.open(1L);
+
+    advanceSeconds(61);
+
+    assertNull(sessionStore.touch(token));
+    assertEquals(0, sessionStore.size());
+    assertEquals(1, sessionStore.getExpired());
+    Mockito.verify(presenceTracker, Mockito.times(1)).setStatus(1L, UserStatus.OFFLINE);
+    ArgumentCaptor<UserChangeEvent> event = ArgumentCaptor.forClass(UserChangeEvent.class);
+    Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(event.capture());
+    assertEquals(1L, event.getValue().getId());
+    assertEquals(UserStatus.OFFLINE, event.getValue().getStatus());
+  }
+
+  @Test
+  public void sweep_usedSession_expirySlides() {
+    String token = sessionStore.open(1L);
+
+    advanceSeconds(45);
+    assertEquals(1L, sessionStore.touch(token));
+    advanceSeconds(45);
+
+    assertEquals(1L, sessionStore.touch(token));
+    assertEquals(0, sessionStore.getExpired());
+    Mockito.verifyNoInteractions(presenceTracker);
+  }
+
+  @Test
+  public void sweep_otherSessionOpen_userStaysOnline() {
+    sessionStore.open(1L);
+    advanceSeconds(30);
+    String later = sessionStore.open(1L);
+
+    advanceSeconds(31);
+
+    assertEquals(1, sessionStore.getExpired());
+    assertEquals(1L, sessionStore.touch(later));
+    Mockito.verifyNoInteractions(presenceTracker, eventPublisher);
+  }
+
+  @Test
+  public void open_overSessionLimit_oldestClosed() {
+    String first = sessionStore.open(1L);
+    String second = sessionStore.open(1L);
+    String third = sessionStore.open(1L);
+
+    assertNull(sessionStore.touch(first));
+    assertEquals(1L, sessionStore.touch(second));
+    assertEquals(1L, sessionStore.touch(third));
+    assertEquals(2, sessionStore.size());
+  }
+
+  @Test
+  public void closeAll_loggedOut_tokensInvalidAndNoExpiry() {
+    String first = sessionStore.open(1L);
+    String second = sessionStore.open(1L);
+
+    sessionStore.closeAll(1L);
+    advanceSeconds(61);
+
+    assertNull(sessionStore.touch(first));
+    assertNull(sessionStore.touch(second));
+    assertEquals(0, sessionStore.getExpired());
+    Mockito.verifyNoInteractions(presenceTracker, eventPublisher);
+  }
+
+  @Test
+  public void run_onlineUsers_offlineAfterTtlWithoutToken() {
+    Mockito.when(userRepository.findAllByStatus(UserStatus.ONLINE)).thenReturn(Collections.singletonList(onlineUser()));
+
+    sessionStore.run(null);
+
+    // the account token is no session token
+    assertNull(sessionStore.touch("accountToken"));
+    assertEquals(0, sessionStore.size());
+    advanceSeconds(61);
+    assertEquals(1, sessionStore.getExpired());
+    Mockito.verify(presenceTracker, Mockito.times(1)).setStatus(1L, UserStatus.OFFLINE);
+  }
+
+  @Test
+  public void run_onlineUserLogsInAgain_staysOnline() {
+    Mockito.when(userRepository.findAllByStatus(UserStatus.ONLINE)).thenReturn(Collections.singletonList(onlineUser()));
+
+    sessionStore.run(null);
+    advanceSeconds(30);
+    String token = sessionStore.open(1L);
+    advanceSeconds(31);
+
+    assertEquals(1, sessionStore.getExpired());
+    assertEquals(1L, sessionStore.touch(token));
+    Mockito.verifyNoInteractions(presenceTracker, eventPublisher);
+  }
+
+  private static User onlineUser() {
+    User user = new User();
+    user.setId(1L);
+    user.setToken("accountToken");
+    user.setStatus(UserStatus.ONLINE);
+    return user;
+  }
+
+  private void advanceSeconds(int seconds) {
+    // the scheduler sweeps once per tick
+    for (int i = 0; i < seconds; i++) {
+      now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+      sessionStore.sweep();
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.cache.UserCache;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StartupWarmerTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @Mock
+  private UserCache userCache;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @Test
+  public void run_enabled_cachesOnlineUsersAndReportsUp() {
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("testUsername");
+    Mockito.when(userRepository.findByStatusOrderByIdDesc(Mockito.eq(UserStatus.ONLINE), Mockito.any()))
+        .thenReturn(Collections.singletonList(user));
+    StartupWarmer startupWarmer = new StartupWarmer(userRepository, userCache, true, 100);
+
+    assertEquals(Status.OUT_OF_SERVICE, startupWarmer.health().getStatus());
+    startupWarmer.run(null);
+
+    Mockito.verify(userCache, Mockito.times(1)).put(user);
+    assertEquals(Status.UP, startupWarmer.health().getStatus());
+  }
+
+  @Test
+  public void run_disabled_noQueries() {
+    StartupWarmer startupWarmer = new StartupWarmer(userRepository, userCache, false, 100);
+
+    startupWarmer.run(null);
+
+    Mockito.verifyNoInteractions(userRepository, userCache);
+    assertEquals(Status.UP, startupWarmer.health().getStatus());
+  }
+}
@@ -0,0 +1,83 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserSearchIndexTest {
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private PresenceTracker presenceTracker;
+
+  @Mock
+  private ResultSet resultSet;
+
+  private UserSearchIndex userSearchIndex;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    MockitoAnnotations.openMocks(this);
+    userSearchIndex = new UserSearchIndex(jdbcTemplate, presenceTracker, 1024);
+
+    // the row of user 1 as it was read before the rename
+    Mockito.when(resultSet.getLong("id")).thenReturn(1L);
+    Mockito.when(resultSet.getString("name")).thenReturn("testName");
+    Mockito.when(resultSet.getString("username")).thenReturn("oldUsername");
+    Mockito.when(resultSet.getInt("status")).thenReturn(UserStatus.OFFLINE.ordinal());
+  }
+
+  @AfterEach
+  public void teardown() {
+    userSearchIndex.shutdown();
+  }
+
+  @Test
+  public void run_userPutDuringLoad_putKept() {
+    User renamedUser = new User();
+    renamedUser.setId(1L);
+    renamedUser.setName("testName");
+    renamedUser.setUsername("newUsername");
+    Mockito.doAnswer(invocation -> {
+      // the rename commits while the rows are read
+      userSearchIndex.put(renamedUser);
+      invocation.getArgument(1, RowCallbackHandler.class).processRow(resultSet);
+      return null;
+    }).when(jdbcTemplate).query(Mockito.eq(UserSearchIndex.DOCUMENTS_SQL), Mockito.any(RowCallbackHandler.class));
+
+    userSearchIndex.run(null);
+
+    assertTrue(userSearchIndex.search("old", 10).isEmpty());
+    List<User> users = userSearchIndex.search("new", 10);
+    assertEquals(1, users.size());
+    assertEquals("newUsername", users.get(0).getUsername());
+  }
+
+  @Test
+  public void run_noConcurrentPut_rowsLoaded() {
+    Mockito.doAnswer(invocation -> {
+      invocation.getArgument(1, RowCallbackHandler.class).processRow(resultSet);
+      return null;
+    }).when(jdbcTemplate).query(Mockito.eq(UserSearchIndex.DOCUMENTS_SQL), Mockito.any(RowCallbackHandler.class));
+
+    userSearchIndex.run(null);
+
+    List<User> users = userSearchIndex.search("test", 10);
+    assertEquals(1, users.size());
+    assertEquals(1L, users.get(0).getId());
+  }
+}
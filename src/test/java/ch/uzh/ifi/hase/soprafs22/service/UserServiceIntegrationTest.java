@@ -8,9 +8,12 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -29,6 +32,9 @@ public class UserServiceIntegrationTest {
   @Autowired
   private UserService userService;
 
+  @Autowired
+  private SessionStore sessionStore;
+
   @BeforeEach
   public void setup() {
     userRepository.deleteAll();
@@ -45,7 +51,7 @@ public class UserServiceIntegrationTest {
     testUser.setPassword("testPassword");
 
     // when
-    User createdUser = userService.createUser(testUser);
+    User createdUser = userService.createUser(testUser).join();
 
     // then
     assertEquals(testUser.getId(), createdUser.getId());
@@ -56,6 +62,24 @@ public class UserServiceIntegrationTest {
     assertEquals(testUser.getPassword(), createdUser.getPassword());
   }
 
+  @Test
+  public void createUser_accountToken_cannotAuthenticate() {
+    User testUser = new User();
+    testUser.setName("testName");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("testPassword");
+    User createdUser = userService.createUser(testUser).join();
+
+    // the persisted account token opens no session, only a login does
+    assertNull(sessionStore.touch(createdUser.getToken()));
+
+    User credentials = new User();
+    credentials.setUsername("testUsername");
+    credentials.setPassword("testPassword");
+    String sessionToken = userService.loginCredentials(credentials).join().getToken();
+    assertEquals(createdUser.getId(), sessionStore.touch(sessionToken));
+  }
+
   @Test
   public void createUser_duplicateUsername_throwsException() {
     assertNull(userRepository.findByUsername("testUsername"));
@@ -64,7 +88,7 @@ public class UserServiceIntegrationTest {
     testUser.setName("testName");
     testUser.setUsername("testUsername");
     testUser.setPassword("testPassword");
-    User createdUser = userService.createUser(testUser);
+    User createdUser = userService.createUser(testUser).join();
 
     // attempt to create second user with same username
     User testUser2 = new User();
@@ -77,4 +101,33 @@ public class UserServiceIntegrationTest {
     // check that an error is thrown
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
   }
+
+  @Test
+  public void editUserbyUserID_takenUsername_searchIndexUnchanged() {
+    User takenUser = new User();
+    takenUser.setName("searchTakenName");
+    takenUser.setUsername("searchTaken");
+    takenUser.setPassword("testPassword");
+    takenUser = userService.createUser(takenUser).join();
+
+    User renamedUser = new User();
+    renamedUser.setName("searchRenamedName");
+    renamedUser.setUsername("searchRenamed");
+    renamedUser.setPassword("testPassword");
+    renamedUser = userService.createUser(renamedUser).join();
+
+    User edit = new User();
+    edit.setId(renamedUser.getId());
+    edit.setUsername("searchTaken");
+
+    // the unique constraint fails the commit
+    assertThrows(DataIntegrityViolationException.class, () -> userService.editUserbyUserID(edit));
+
+    List<User> taken = userService.searchUsers("searchTaken", 10);
+    assertEquals(1, taken.size());
+    assertEquals(takenUser.getId(), taken.get(0).getId());
+    List<User> renamed = userService.searchUsers("searchRenamed", 10);
+    assertEquals(1, renamed.size());
+    assertEquals("searchRenamed", renamed.get(0).getUsername());
+  }
 }
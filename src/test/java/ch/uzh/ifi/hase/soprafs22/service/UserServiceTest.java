@@ -1,16 +1,47 @@
 package ch.uzh.ifi.hase.soprafs22.service;
 
+import ch.uzh.ifi.hase.soprafs22.cache.UserCache;
+import ch.uzh.ifi.hase.soprafs22.config.ReadWriteRoutingDataSource;
+import ch.uzh.ifi.hase.soprafs22.constant.ImportStatus;
+import ch.uzh.ifi.hase.soprafs22.constant.UserField;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.events.UserChangeEvent;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.security.PasswordHasher;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UserServiceTest {
@@ -18,6 +49,30 @@ public class UserServiceTest {
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private SessionStore sessionStore;
+
+  @Mock
+  private PresenceTracker presenceTracker;
+
+  @Mock
+  private UserCache userCache;
+
+  @Mock
+  private PasswordHasher passwordHasher;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  @Mock
+  private UsernameFilter usernameFilter;
+
+  @Mock
+  private UserSearchIndex userSearchIndex;
+
+  @Mock
+  private Executor completionExecutor;
+
   @InjectMocks
   private UserService userService;
 
@@ -37,13 +92,19 @@ public class UserServiceTest {
     // when -> any object is being save in the userRepository -> return the dummy
     // testUser
     Mockito.when(userRepository.save(Mockito.any())).thenReturn(testUser);
+    Mockito.when(passwordHasher.hash(Mockito.any())).thenReturn(CompletableFuture.completedFuture("hashedPassword"));
+    // continuations after the password hasher run on the calling thread
+    Mockito.doAnswer(invocation -> {
+      invocation.getArgument(0, Runnable.class).run();
+      return null;
+    }).when(completionExecutor).execute(Mockito.any());
   }
 
   @Test
   public void createUser_validInputs_success() {
     // when -> any object is being save in the userRepository -> return the dummy
     // testUser
-    User createdUser = userService.createUser(testUser);
+    User createdUser = userService.createUser(testUser).join();
 
     // then
     Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
@@ -53,15 +114,18 @@ public class UserServiceTest {
     assertEquals(testUser.getUsername(), createdUser.getUsername());
     assertNotNull(createdUser.getToken());
     assertEquals(UserStatus.ONLINE, createdUser.getStatus());
+    Mockito.verify(sessionStore, Mockito.times(1)).keepOnline(createdUser.getId());
+    Mockito.verify(sessionStore, Mockito.never()).open(Mockito.any());
   }
 
 
   @Test
   public void createUser_duplicateInputs_throwsException() {
     // given -> a first user has already been created
-    userService.createUser(testUser);
+    userService.createUser(testUser).join();
 
     // when -> setup additional mocks for UserRepository
+    Mockito.when(usernameFilter.mightContain(Mockito.any())).thenReturn(true);
     Mockito.when(userRepository.findByName(Mockito.any())).thenReturn(testUser);
     Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
 
@@ -70,4 +134,311 @@ public class UserServiceTest {
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
   }
 
+  @Test
+  public void createUser_usernameNotInFilter_noUniquenessQuery() {
+    userService.createUser(testUser).join();
+
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+    Mockito.verify(usernameFilter, Mockito.times(1)).put("testUsername");
+  }
+
+  @Test
+  public void createUser_concurrentDuplicate_constraintViolationPropagated() {
+    Mockito.when(userRepository.save(Mockito.any())).thenThrow(new DataIntegrityViolationException("unique"));
+
+    CompletionException exception = assertThrows(CompletionException.class, () -> userService.createUser(testUser).join());
+    assertTrue(exception.getCause() instanceof DataIntegrityViolationException);
+    Mockito.verify(usernameFilter, Mockito.never()).put(Mockito.any());
+  }
+
+  @Test
+  public void createUser_passwordStillHashed_returnsBeforeSave() {
+    CompletableFuture<String> hashedPassword = new CompletableFuture<>();
+    Mockito.when(passwordHasher.hash(Mockito.any())).thenReturn(hashedPassword);
+
+    CompletableFuture<User> createdUser = userService.createUser(testUser);
+
+    // the caller is not held while the password is hashed
+    assertFalse(createdUser.isDone());
+    Mockito.verify(userRepository, Mockito.never()).save(Mockito.any());
+
+    hashedPassword.complete("hashedPassword");
+
+    assertEquals(testUser.getId(), createdUser.join().getId());
+    assertEquals("hashedPassword", testUser.getPassword());
+  }
+
+  @Test
+  public void createUser_hasherSaturated_serviceUnavailable() {
+    Mockito.when(passwordHasher.hash(Mockito.any())).thenThrow(new RejectedExecutionException());
+
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+  }
+
+  @Test
+  public void isUsernameAvailable_notInFilter_noRepositoryCall() {
+    assertTrue(userService.isUsernameAvailable("freeUsername"));
+
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+  }
+
+  @Test
+  public void isUsernameAvailable_probableHit_confirmedByRepository() {
+    Mockito.when(usernameFilter.mightContain(Mockito.any())).thenReturn(true);
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(testUser);
+
+    assertFalse(userService.isUsernameAvailable("testUsername"));
+    assertTrue(userService.isUsernameAvailable("falsePositive"));
+  }
+
+  @Test
+  public void searchUsers_invalidInput_throwsException() {
+    assertThrows(ResponseStatusException.class, () -> userService.searchUsers(" ", 10));
+    assertThrows(ResponseStatusException.class, () -> userService.searchUsers("te", UserService.MAX_SEARCH_LIMIT + 1));
+    Mockito.verifyNoInteractions(userSearchIndex);
+  }
+
+  @Test
+  public void getUsersAfter_limitOutOfRange_throwsException() {
+    assertThrows(ResponseStatusException.class, () -> userService.getUsersAfter(0L, 0));
+    assertThrows(ResponseStatusException.class, () -> userService.getUsersAfter(0L, UserService.MAX_PAGE_SIZE + 1));
+  }
+
+  @Test
+  public void getUserbyUserID_cachedUser_noRepositoryCall() {
+    Mockito.when(userCache.getById(1L)).thenReturn(testUser);
+
+    User foundUser = userService.getUserbyUserID(1L);
+
+    assertEquals(testUser, foundUser);
+    Mockito.verify(userRepository, Mockito.never()).findByid(Mockito.any());
+  }
+
+  @Test
+  public void getUsers_selectedFields_presenceAppliedAndIdDropped() {
+    Map<String, Object> row = new LinkedHashMap<>();
+    row.put("id", 1L);
+    row.put("status", UserStatus.OFFLINE);
+    Mockito.when(userRepository.findAllFields(Collections.singletonList(UserField.STATUS)))
+        .thenReturn(new ArrayList<>(Collections.singletonList(row)));
+    Mockito.when(presenceTracker.statusOf(1L, UserStatus.OFFLINE)).thenReturn(UserStatus.ONLINE);
+
+    List<Map<String, Object>> users = userService.getUsers(Arrays.asList("status", " status"));
+
+    assertEquals(Collections.singletonList(Collections.singletonMap("status", UserStatus.ONLINE)), users);
+  }
+
+  @Test
+  public void getUsers_unknownField_throwsException() {
+    assertThrows(ResponseStatusException.class, () -> userService.getUsers(Collections.singletonList("password")));
+    assertThrows(ResponseStatusException.class, () -> userService.getUsers(Collections.emptyList()));
+    Mockito.verifyNoInteractions(userRepository);
+  }
+
+  @Test
+  public void getUsersByIds_cachedAndMissing_oneQueryInRequestOrder() {
+    User loadedUser = new User();
+    loadedUser.setId(3L);
+    loadedUser.setUsername("loadedUsername");
+    Mockito.when(userCache.getById(1L)).thenReturn(testUser);
+    Mockito.when(userRepository.findAllById(Mockito.any())).thenReturn(Collections.singletonList(loadedUser));
+
+    List<User> users = userService.getUsersByIds(Arrays.asList(3L, 2L, 1L, 3L));
+
+    assertEquals(Arrays.asList(loadedUser, null, testUser, loadedUser), users);
+    Mockito.verify(userRepository, Mockito.times(1)).findAllById(new HashSet<>(Arrays.asList(2L, 3L)));
+    Mockito.verify(userCache, Mockito.times(1)).put(loadedUser);
+  }
+
+  @Test
+  public void getUsersByIds_invalidInput_throwsException() {
+    assertThrows(ResponseStatusException.class, () -> userService.getUsersByIds(Collections.emptyList()));
+    assertThrows(ResponseStatusException.class, () -> userService.getUsersByIds(Arrays.asList(1L, null)));
+    assertThrows(ResponseStatusException.class,
+        () -> userService.getUsersByIds(Collections.nCopies(UserService.MAX_BATCH_SIZE + 1, 1L)));
+    Mockito.verifyNoInteractions(userRepository);
+  }
+
+  @Test
+  public void loginCredentials_legacyPassword_rehashed() {
+    User storedUser = new User();
+    storedUser.setId(1L);
+    storedUser.setUsername("testUsername");
+    storedUser.setPassword("testPassword");
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(storedUser);
+    Mockito.when(userRepository.save(storedUser)).thenReturn(storedUser);
+    Mockito.when(passwordHasher.matches("testPassword", "testPassword")).thenReturn(CompletableFuture.completedFuture(true));
+    Mockito.when(passwordHasher.needsRehash("testPassword")).thenReturn(true);
+
+    User loggedInUser = userService.loginCredentials(testUser).join().getUser();
+
+    Mockito.verify(userRepository, Mockito.times(1)).save(storedUser);
+    assertEquals("hashedPassword", loggedInUser.getPassword());
+    assertEquals(UserStatus.ONLINE, loggedInUser.getStatus());
+  }
+
+  @Test
+  public void loginCredentials_validPassword_newSessionPerLogin() {
+    User storedUser = new User();
+    storedUser.setId(1L);
+    storedUser.setUsername("testUsername");
+    storedUser.setPassword("hashedPassword");
+    storedUser.setToken("accountToken");
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(storedUser);
+    Mockito.when(passwordHasher.matches(Mockito.any(), Mockito.any())).thenReturn(CompletableFuture.completedFuture(true));
+    Mockito.when(sessionStore.open(1L)).thenReturn("firstToken", "secondToken");
+
+    assertEquals("firstToken", userService.loginCredentials(testUser).join().getToken());
+    assertEquals("secondToken", userService.loginCredentials(testUser).join().getToken());
+    assertEquals("accountToken", storedUser.getToken());
+  }
+
+  @Test
+  public void loginCredentials_wrongPassword_throwsException() {
+    User storedUser = new User();
+    storedUser.setId(1L);
+    storedUser.setUsername("testUsername");
+    storedUser.setPassword("otherPassword");
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(storedUser);
+    Mockito.when(passwordHasher.matches(Mockito.any(), Mockito.any())).thenReturn(CompletableFuture.completedFuture(false));
+
+    CompletionException exception = assertThrows(CompletionException.class, () -> userService.loginCredentials(testUser).join());
+    assertTrue(exception.getCause() instanceof ResponseStatusException);
+    Mockito.verify(sessionStore, Mockito.never()).open(Mockito.any());
+  }
+
+  @Test
+  public void getUserbyUserID_editedUserReadFromLaggingReplica_notCached() {
+    // the edit has committed on the primary, the replica still has the old username but is
+    // within the maximum lag, so it serves the read
+    DataSource primary = h2("primary");
+    DataSource replica = h2("replica");
+    new JdbcTemplate(primary).execute("CREATE TABLE profile (username VARCHAR(32))");
+    new JdbcTemplate(primary).update("INSERT INTO profile VALUES ('newUsername')");
+    new JdbcTemplate(replica).execute("CREATE TABLE profile (username VARCHAR(32))");
+    new JdbcTemplate(replica).update("INSERT INTO profile VALUES ('oldUsername')");
+    ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(primary, Map.of("replica-1", replica), null, 1000);
+    routingDataSource.afterPropertiesSet();
+    DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    TransactionTemplate readOnly = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    readOnly.setReadOnly(true);
+    Mockito.when(userRepository.findByid(1L)).thenAnswer(invocation -> {
+      testUser.setUsername(jdbcTemplate.queryForObject("SELECT username FROM profile", String.class));
+      return testUser;
+    });
+
+    User userById = readOnly.execute(status -> userService.getUserbyUserID(1L));
+
+    assertEquals("oldUsername", userById.getUsername());
+    Mockito.verify(userCache, Mockito.never()).put(Mockito.any());
+
+    // read from the primary, the user is cached
+    userService.getUserbyUserID(1L);
+    Mockito.verify(userCache, Mockito.times(1)).put(testUser);
+  }
+
+  @Test
+  public void importUsers_duplicatesAndExisting_onlyNewUsersSaved() {
+    User existing = newImportUser("existing");
+    User first = newImportUser("new");
+    User repeated = newImportUser("new");
+    User invalid = newImportUser(null);
+    Mockito.when(userRepository.findExistingUsernames(Mockito.any())).thenReturn(Collections.singletonList("existing"));
+    Mockito.when(passwordHasher.hashAll(Mockito.any())).thenReturn(Collections.singletonList("hashedPassword"));
+
+    List<ImportStatus> results = userService.importUsers(Arrays.asList(existing, first, repeated, invalid));
+
+    assertEquals(Arrays.asList(ImportStatus.CONFLICT, ImportStatus.CREATED, ImportStatus.DUPLICATE, ImportStatus.INVALID), results);
+    Mockito.verify(userRepository, Mockito.times(1)).findExistingUsernames(Mockito.any());
+    Mockito.verify(userRepository, Mockito.times(1)).saveAll(Collections.singletonList(first));
+    assertEquals("hashedPassword", first.getPassword());
+    assertEquals(UserStatus.OFFLINE, first.getStatus());
+  }
+
+  @Test
+  public void importUsers_usernameTakenMeanwhile_chunkRetriedRowByRow() {
+    User first = newImportUser("first");
+    User taken = newImportUser("taken");
+    Mockito.when(userRepository.findExistingUsernames(Mockito.any())).thenReturn(Collections.emptyList());
+    Mockito.when(passwordHasher.hashAll(Mockito.any())).thenReturn(Arrays.asList("hashedPassword", "hashedPassword"));
+    // "taken" is registered between the check and the insert
+    Mockito.when(userRepository.saveAll(Mockito.any())).thenThrow(new DataIntegrityViolationException("unique"));
+    Mockito.when(userRepository.save(first)).thenReturn(first);
+    Mockito.when(userRepository.save(taken)).thenThrow(new DataIntegrityViolationException("unique"));
+
+    List<ImportStatus> results = userService.importUsers(Arrays.asList(first, taken));
+
+    assertEquals(Arrays.asList(ImportStatus.CREATED, ImportStatus.CONFLICT), results);
+    Mockito.verify(usernameFilter, Mockito.times(1)).put("first");
+    Mockito.verify(usernameFilter, Mockito.never()).put("taken");
+  }
+
+  @Test
+  public void importUsers_createdUsers_eventPerUser() {
+    User first = newImportUser("first");
+    User second = newImportUser("second");
+    User existing = newImportUser("existing");
+    Mockito.when(userRepository.findExistingUsernames(Mockito.any())).thenReturn(Collections.singletonList("existing"));
+    Mockito.when(passwordHasher.hashAll(Mockito.any())).thenReturn(Arrays.asList("hashedPassword", "hashedPassword"));
+
+    userService.importUsers(Arrays.asList(first, existing, second));
+
+    ArgumentCaptor<UserChangeEvent> events = ArgumentCaptor.forClass(UserChangeEvent.class);
+    Mockito.verify(eventPublisher, Mockito.times(2)).publishEvent(events.capture());
+    assertEquals("first", events.getAllValues().get(0).getUsername());
+    assertEquals("second", events.getAllValues().get(1).getUsername());
+    assertEquals(UserStatus.OFFLINE, events.getAllValues().get(1).getStatus());
+  }
+
+  @Test
+  public void logoutUserbyUserID_statusChanged_publishesEvent() {
+    Mockito.when(userRepository.findByid(1L)).thenReturn(testUser);
+    Mockito.when(presenceTracker.setStatus(1L, UserStatus.OFFLINE)).thenReturn(true);
+
+    userService.logoutUserbyUserID(1L);
+
+    Mockito.verify(sessionStore, Mockito.times(1)).closeAll(1L);
+    ArgumentCaptor<UserChangeEvent> event = ArgumentCaptor.forClass(UserChangeEvent.class);
+    Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(event.capture());
+    assertEquals(1L, event.getValue().getId());
+    assertEquals(UserStatus.OFFLINE, event.getValue().getStatus());
+  }
+
+  @Test
+  public void logoutUserbyUserID_alreadyOffline_noEvent() {
+    Mockito.when(userRepository.findByid(1L)).thenReturn(testUser);
+
+    userService.logoutUserbyUserID(1L);
+
+    Mockito.verify(eventPublisher, Mockito.never()).publishEvent(Mockito.any(Object.class));
+  }
+
+  @Test
+  public void logoutUserbyUserID_inTransaction_evictedAfterCommit() {
+    Mockito.when(userRepository.findByid(1L)).thenReturn(testUser);
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      userService.logoutUserbyUserID(1L);
+
+      Mockito.verify(userCache, Mockito.never()).evict(Mockito.any());
+      TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+      Mockito.verify(userCache, Mockito.times(1)).evict(testUser);
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  private static DataSource h2(String name) {
+    return new DriverManagerDataSource("jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+  }
+
+  private static User newImportUser(String username) {
+    User user = new User();
+    user.setName("name");
+    user.setUsername(username);
+    user.setPassword("testPassword");
+    return user;
+  }
 }
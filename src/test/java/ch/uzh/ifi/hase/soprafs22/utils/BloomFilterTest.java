@@ -0,0 +1,41 @@
+package ch.uzh.ifi.hase.soprafs22.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+  @Test
+  public void mightContain_addedValues_alwaysTrue() {
+    BloomFilter filter = new BloomFilter(10_000, 0.01);
+    for (int i = 0; i < 10_000; i++) {
+      filter.put("user" + i);
+    }
+
+    for (int i = 0; i < 10_000; i++) {
+      assertTrue(filter.mightContain("user" + i));
+    }
+  }
+
+  @Test
+  public void mightContain_otherValues_falsePositiveRateNearConfigured() {
+    BloomFilter filter = new BloomFilter(10_000, 0.01);
+    for (int i = 0; i < 10_000; i++) {
+      filter.put("user" + i);
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 100_000; i++) {
+      if (filter.mightContain("other" + i)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+  }
+
+  @Test
+  public void constructor_invalidRate_throwsException() {
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 1.0));
+  }
+}
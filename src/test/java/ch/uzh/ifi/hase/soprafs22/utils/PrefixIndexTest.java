@@ -0,0 +1,67 @@
+package ch.uzh.ifi.hase.soprafs22.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrefixIndexTest {
+
+  private PrefixIndex index;
+
+  @BeforeEach
+  public void setup() {
+    // large threshold: compactions only happen when a test asks for them
+    index = new PrefixIndex(1_000_000);
+    index.addAll(Arrays.asList("anna", "annabelle", "ann", "bob", "anna maria"), Arrays.asList(1L, 2L, 3L, 4L, 1L));
+  }
+
+  @AfterEach
+  public void teardown() {
+    index.shutdown();
+  }
+
+  @Test
+  public void search_prefix_exactMatchFirstThenAlphabetical() {
+    assertEquals(Arrays.asList(3L, 1L, 2L), index.search("ann", 10));
+  }
+
+  @Test
+  public void search_limit_truncatesResults() {
+    assertEquals(Arrays.asList(3L, 1L), index.search("an", 2));
+  }
+
+  @Test
+  public void search_noMatch_emptyResult() {
+    assertEquals(Collections.emptyList(), index.search("carl", 10));
+  }
+
+  @Test
+  public void search_pendingChanges_appliedBeforeAndAfterCompaction() {
+    index.remove("ann", 3L);
+    index.add("annika", 5L);
+
+    List<Long> beforeCompaction = index.search("ann", 10);
+    index.compact();
+    List<Long> afterCompaction = index.search("ann", 10);
+
+    assertEquals(Arrays.asList(1L, 2L, 5L), beforeCompaction);
+    assertEquals(beforeCompaction, afterCompaction);
+    assertEquals(5, index.size());
+  }
+
+  @Test
+  public void search_removedAndAddedAgain_presentOnce() {
+    index.remove("bob", 4L);
+    index.add("bob", 4L);
+
+    assertEquals(Collections.singletonList(4L), index.search("b", 10));
+    index.compact();
+    assertEquals(Collections.singletonList(4L), index.search("b", 10));
+  }
+}